@@ -124,8 +124,10 @@ public class Aggregate extends Operator {
 		child.open();
 		super.open();
 
-		while (child.hasNext()) {
-    		agg.mergeTupleIntoGroup(child.next());
+		// the input is read a batch at a time
+		TupleBatch b;
+		while ((b = child.nextBatch()) != null) {
+    		agg.mergeBatchIntoGroup(b);
     	}
 		aggIterator = agg.iterator();
     	aggIterator.open();
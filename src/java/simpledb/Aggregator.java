@@ -76,6 +76,18 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every row of a batch into the aggregate, as mergeTupleIntoGroup
+     * would one at a time.
+     *
+     * @param b the batch of rows containing an aggregate field and a
+     *          group-by field
+     */
+    public default void mergeBatchIntoGroup(TupleBatch b) {
+        for (int i = 0; i < b.numRows(); i++)
+            mergeTupleIntoGroup(b.getTuple(i));
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -0,0 +1,89 @@
+package simpledb;
+
+/**
+ * A BufferFrame is one slot of the BufferPool. It holds the cached page
+ * together with the bookkeeping that the pool's {@link ReplacementPolicy}
+ * threads through it, so that a policy can link frames together and update
+ * them on a hit without any lookups of its own.
+ *
+ * @see BufferPool
+ * @see ReplacementPolicy
+ */
+public class BufferFrame {
+
+    private final PageId pid;
+    private Page page;
+    private int pinCount;
+
+    // intrusive links and state owned by the ReplacementPolicy; only the
+    // policy the frame was added to may touch these.
+    BufferFrame prev;
+    BufferFrame next;
+    boolean referenced;
+    int queue;
+
+    // the FrameArena slot holding the page image in an off-heap pool, or -1;
+    // owned by the BufferPool
+    int slot = -1;
+
+    /**
+     * Creates a frame caching the specified page.
+     *
+     * @param pid the id of the cached page
+     * @param page the cached page
+     */
+    public BufferFrame(PageId pid, Page page) {
+        this.pid = pid;
+        this.page = page;
+    }
+
+    /** @return the id of the page cached in this frame */
+    public PageId getId() {
+        return pid;
+    }
+
+    /** @return the page cached in this frame */
+    public Page getPage() {
+        return page;
+    }
+
+    /**
+     * Replaces the cached page with a newer version of the same page (e.g.
+     * after an update, or with a before image on abort).
+     */
+    public void setPage(Page page) {
+        this.page = page;
+    }
+
+    /** Pins the frame, keeping it from being evicted until it is unpinned. */
+    public void pin() {
+        pinCount++;
+    }
+
+    /** Drops the given number of pins, never going below zero. */
+    public void unpin(int times) {
+        pinCount = Math.max(0, pinCount - times);
+    }
+
+    /** @return the number of pins currently held on this frame */
+    public int getPinCount() {
+        return pinCount;
+    }
+
+    /**
+     * @return true if the clean page in this frame may be evicted. Pinned
+     *   frames are in use, and are never evicted.
+     */
+    public boolean isEvictable() {
+        return isEvictable(false);
+    }
+
+    /**
+     * @param steal true if a dirty page may be evicted too, once the
+     *   BufferPool has written it out
+     * @return true if the page in this frame may be evicted
+     */
+    public boolean isEvictable(boolean steal) {
+        return pinCount == 0 && (steal || page.isDirty() == null);
+    }
+}
@@ -1,9 +1,16 @@
 package simpledb;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,6 +20,45 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is split into shards by page id, each with its own frames,
+ * its own replacement policy and its own monitor, so that threads hitting
+ * different pages don't serialize on the pool. Only the number of cached
+ * pages is shared. A page is evicted from the shard that needs the room if
+ * it has a victim, and from the other shards otherwise; no thread ever holds
+ * two shard monitors at once.
+ * <p>
+ * Operators that keep using a page after fetching it (e.g. a scan working
+ * through its tuples) pin it with {@link #pinPage}, which keeps it from being
+ * evicted until it is unpinned. Pins still held when a transaction completes
+ * are dropped then.
+ * <p>
+ * The pool runs in STEAL mode: when every unpinned page is dirty, a dirty
+ * page is written out and evicted rather than failing the request. Every
+ * dirty page written, whether stolen, flushed at commit or by the
+ * background writer (see {@link #startFlusher}), has its update logged and
+ * the log forced first (write-ahead logging), and a transaction that
+ * aborts after some of its pages went to disk has them restored from the
+ * before images in the log.
+ * <p>
+ * Sequential scans read ahead (see {@link ReadAhead}) by asking for pages
+ * with {@link #prefetchPage}, which reads them in the background on an I/O
+ * thread of its own. A prefetch never takes a lock, only reads pages its
+ * transaction already holds a lock on, and only takes a frame that is free
+ * or holds a clean, unpinned page; a request for a page whose prefetch is
+ * under way waits for it rather than reading the page again.
+ * <p>
+ * A commit writes all the pages of the transaction together, after one
+ * log force, so that runs of consecutive pages of a HeapFile go out in a
+ * single write (see {@link HeapFile#writePages}). When the files written
+ * are synced to disk is up to the {@link SyncPolicy}.
+ * <p>
+ * In off-heap mode (see {@link #OFF_HEAP_PROPERTY}) the page images of
+ * HeapFile pages are kept in a {@link FrameArena} of direct memory, each
+ * frame owning one slot of it, rather than on the Java heap. A page read
+ * into a slot is decoded from the slot's bytes as it is used; when its
+ * frame is removed, the page is detached onto the heap before the slot is
+ * reused, so anyone still holding it keeps seeing the same contents.
  * 
  * @Threadsafe, all fields are final
  */
@@ -27,27 +73,170 @@ public class BufferPool {
     constructor instead. */
     //private lockLevel = 0;
     public static final int DEFAULT_PAGES = 50;
-    private int numPages = DEFAULT_PAGES;
-    private HashMap<PageId, Page> idToPage;
-    private LinkedList<PageId> q;
-    
-    private LockManager lm;
-    private static long THRESHOLD = 199;
+
+    /** System property naming the {@link ReplacementPolicy.Kind} used when
+    the constructor isn't given one, e.g. -Dsimpledb.bufferpool.policy=clock */
+    public static final String POLICY_PROPERTY = "simpledb.bufferpool.policy";
+
+    /** System property that, when "true", makes the constructors that
+    aren't told otherwise keep page images off the Java heap,
+    e.g. -Dsimpledb.bufferpool.offheap=true */
+    public static final String OFF_HEAP_PROPERTY = "simpledb.bufferpool.offheap";
+
+    /** Upper bound on the number of shards picked by {@link #BufferPool(int)}. */
+    public static final int MAX_SHARDS = 16;
+
+    /** How many intervals the background writer waits, at most, after failing. */
+    public static final int MAX_FLUSHER_BACKOFF = 64;
+
+    /** How long {@link SyncPolicy#BATCH} lets written files go unsynced, by default. */
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100;
+
+    /** When the files that committed pages were written to are synced to disk. */
+    public enum SyncPolicy {
+        /** Every commit syncs the files it wrote to before it returns. */
+        COMMIT,
+        /** Files written to are synced together, once per sync interval, by
+        the first commit (or background writer round) after it runs out; a
+        commit may return before its pages are on disk. */
+        BATCH
+    }
+
+    /**
+     * Number of threads reading pages ahead of scans. One keeps the reads
+     * in the order scans ask for them, which is the order a disk likes.
+     */
+    public static final int PREFETCH_THREADS = 1;
+
+    /** One shard of the page table: its frames, and the replacement policy
+    that orders them. Guarded by its own monitor. */
+    private static class Shard {
+        final int index;
+        final HashMap<PageId, BufferFrame> frames = new HashMap<PageId, BufferFrame>();
+        final ReplacementPolicy policy;
+
+        Shard(int index, ReplacementPolicy policy) {
+            this.index = index;
+            this.policy = policy;
+        }
+    }
+
+    private final int numPages;
+    private final Shard[] shards;
+    // frames in use or reserved, across all shards; never above numPages
+    private final AtomicInteger numCached = new AtomicInteger();
     
-    public void setIdToPage(PageId pid, Page p) {
-    	idToPage.put(pid, p);
+    private final LockManager lm;
+
+    // slots for the page images of cached pages, in off-heap mode; else null
+    private final FrameArena arena;
+
+    // pins held by each transaction, so they can be dropped when it completes;
+    // each map is only changed inside compute()
+    private final ConcurrentHashMap<TransactionId, HashMap<PageId, Integer>> pins =
+            new ConcurrentHashMap<TransactionId, HashMap<PageId, Integer>>();
+
+    // pages each running transaction dirtied that have been written to
+    // disk, and so have their before images in the log
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> written =
+            new ConcurrentHashMap<TransactionId, Set<PageId>>();
+
+    // the background dirty page writer, if started; guarded by this
+    private Thread flusher;
+
+    // reads pages ahead of sequential scans
+    private final ThreadPoolExecutor prefetcher;
+    // prefetches that haven't finished yet
+    private final ConcurrentHashMap<PageId, Future<Boolean>> prefetching =
+            new ConcurrentHashMap<PageId, Future<Boolean>>();
+
+    private volatile SyncPolicy syncPolicy = SyncPolicy.COMMIT;
+    private volatile long syncIntervalMillis = DEFAULT_SYNC_INTERVAL_MILLIS;
+    // tables written to since they were last synced, in BATCH mode
+    private final Set<Integer> unsynced = ConcurrentHashMap.newKeySet();
+    private final AtomicLong lastSync = new AtomicLong(System.nanoTime());
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, replacing pages
+     * with the policy named by the {@link #POLICY_PROPERTY} system property
+     * (LRU if it is not set), off the heap if {@link #OFF_HEAP_PROPERTY} is
+     * set.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     */
+    public BufferPool(int numPages) {
+        this(numPages, defaultPolicy());
     }
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
+     * @param kind the replacement policy used to pick pages to evict.
      */
-    public BufferPool(int numPages) {
+    public BufferPool(int numPages, ReplacementPolicy.Kind kind) {
+        this(numPages, kind, defaultShards(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, in a page table
+     * split into numShards shards. More shards let more threads use the
+     * pool at once; fewer keep eviction closer to what the policy would do
+     * with a single view of the whole pool.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param kind the replacement policy used to pick pages to evict.
+     * @param numShards the number of shards in the page table.
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind kind, int numShards) {
+        this(numPages, kind, numShards, Boolean.getBoolean(OFF_HEAP_PROPERTY));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, in a page table
+     * split into numShards shards, keeping the page images off the Java heap
+     * if offHeap is true. The off-heap memory, numPages pages of it, is
+     * allocated up front.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param kind the replacement policy used to pick pages to evict.
+     * @param numShards the number of shards in the page table.
+     * @param offHeap true to keep page images in direct memory.
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind kind, int numShards,
+            boolean offHeap) {
         this.numPages = numPages;
-        idToPage = new HashMap<PageId, Page>();
-        q = new LinkedList<PageId>();
+        arena = offHeap ? new FrameArena(numPages, getPageSize()) : null;
+        shards = new Shard[numShards];
+        int shardPages = (numPages + numShards - 1) / numShards;
+        for (int i = 0; i < numShards; i++)
+            shards[i] = new Shard(i, kind.create(shardPages));
         lm = new LockManager();
+        prefetcher = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread t = new Thread(r, "BufferPool prefetch");
+                    t.setDaemon(true);
+                    return t;
+                });
+        prefetcher.allowCoreThreadTimeOut(true);
+    }
+
+    /** A shard per 8 pages, so that each policy has something to work with. */
+    private static int defaultShards(int numPages) {
+        return Math.max(1, Math.min(MAX_SHARDS, numPages / 8));
+    }
+
+    private Shard shardFor(PageId pid) {
+        // the shard's HashMap indexes by the low bits of the hash code, so
+        // the shard is picked by other bits: were it picked by the low bits,
+        // a shard's pages would all fall in a fraction of its map's buckets
+        int h = pid.hashCode() * 0x9e3779b9;
+        return shards[(h >>> 16) % shards.length];
+    }
+
+    private static ReplacementPolicy.Kind defaultPolicy() {
+        String name = System.getProperty(POLICY_PROPERTY, "LRU");
+        return ReplacementPolicy.Kind.valueOf(name.trim().toUpperCase());
     }
     
     public static int getPageSize() {
@@ -85,56 +274,353 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
+    	return getPage(tid, pid, perm, false);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, telling
+     * the replacement policy whether the access is part of a sequential
+     * scan. Scan-resistant policies (see {@link ReplacementPolicy.Kind#TWO_QUEUE})
+     * keep pages touched sequentially on probation, so that one pass over a
+     * large table doesn't push the hot pages out of the pool.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param sequential true if the page is being read by a sequential scan
+     * @see #getPage(TransactionId, PageId, Permissions)
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm,
+            boolean sequential)
+        throws TransactionAbortedException, DbException {
+    	return fetchPage(tid, pid, perm, sequential, false);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage}, and pin it in the
+     * pool: the page is not evicted until the transaction unpins it with
+     * {@link #unpinPage}, or completes. A page may be pinned several times,
+     * and stays pinned until it has been unpinned as many times.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param sequential true if the page is being read by a sequential scan
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm,
+            boolean sequential)
+        throws TransactionAbortedException, DbException {
+    	Page p = fetchPage(tid, pid, perm, sequential, true);
+    	pins.compute(tid, (t, ps) -> {
+    		if (ps == null)
+    			ps = new HashMap<PageId, Integer>();
+    		ps.merge(pid, 1, Integer::sum);
+    		return ps;
+    	});
+    	return p;
+    }
+
+    /**
+     * Drops one pin the transaction holds on the page; see {@link #pinPage}.
+     * Does nothing if the transaction has no pin on the page.
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+    	boolean[] pinned = new boolean[1];
+    	pins.computeIfPresent(tid, (t, ps) -> {
+    		Integer n = ps.get(pid);
+    		if (n != null) {
+    			pinned[0] = true;
+    			if (n == 1)
+    				ps.remove(pid);
+    			else
+    				ps.put(pid, n - 1);
+    		}
+    		return ps.isEmpty() ? null : ps;
+    	});
+    	if (pinned[0])
+    		unpinFrame(pid, 1);
+    }
+
+    private void unpinFrame(PageId pid, int times) {
+    	Shard shard = shardFor(pid);
+    	synchronized (shard) {
+    		BufferFrame f = shard.frames.get(pid);
+    		if (f != null)
+    			f.unpin(times);
+    	}
+    }
+
+    private Page fetchPage(TransactionId tid, PageId pid, Permissions perm,
+            boolean sequential, boolean pin)
+        throws TransactionAbortedException, DbException {
     	
-    	// To implement blocking I followed he general outline in
-    	// https://piazza.com/class/jqbhcmh6fbn3on?cid=420
-    	// More info in writeup.
-    	long start = System.currentTimeMillis();
-    	long end;
-    	boolean acquiredLock = false;
+    	// blocks until the lock is granted, or aborts the transaction
+    	lm.acquireLock(tid, pid, perm);
     	
-    	acquiredLock = lm.grantLock(tid, pid, perm);
-    	long timeOutThreshold  = 500 + (long) (Math.random()*500);
-    	while(!acquiredLock) {
+    	Shard shard = shardFor(pid);
+    	synchronized (shard) {
+    		BufferFrame f = shard.frames.get(pid);
+    		if (f != null) {
+    			shard.policy.frameAccessed(f, sequential);
+    			if (pin)
+    				f.pin();
+    			return f.getPage();
+    		}
+    	}
+
+    	Future<Boolean> pending = prefetching.get(pid);
+    	if (pending != null) {
+    		// the page is on its way in; wait for it instead of reading it too
     		try {
-    			end = System.currentTimeMillis();
-    			if (end - start > timeOutThreshold) {
-    				throw new TransactionAbortedException();
+    			pending.get();
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		} catch (ExecutionException e) {
+    			// read it ourselves
+    		}
+    		synchronized (shard) {
+    			BufferFrame f = shard.frames.get(pid);
+    			if (f != null) {
+    				shard.policy.frameAccessed(f, sequential);
+    				if (pin)
+    					f.pin();
+    				return f.getPage();
     			}
-    			Thread.sleep(20 + (int) Math.random()*20);
-    		} catch (TransactionAbortedException e) {
-    			throw e;
-    		} catch(Exception e) {
-    			e.printStackTrace();
     		}
-    		acquiredLock = lm.grantLock(tid, pid, perm);
     	}
-    	
-        if (idToPage.containsKey(pid)) {
-        	q.remove(pid);
-        	q.add(pid);
-        	return idToPage.get(pid);
-        }
-        else {
-        	int tableid = pid.getTableId();
-        	try {
-	        	DbFile f = Database.getCatalog().getDatabaseFile(tableid);
-	        	Page p = f.readPage(pid);
-	        	if (idToPage.size() < numPages) {
-	        		idToPage.put(pid, p);
-	        		q.add(pid);
-	        	}
-	        	else {
-	        		evictPage();
-	        		idToPage.put(pid, p);
-	        		q.add(pid);
-	        	}
-	        	return p;
-        	} catch (Exception e) {
-        		throw new DbException("Could not find Page.");
-        	}
-        	
-        }        
+
+    	// read the page without holding up the rest of the shard
+    	reserveFrame(shard);
+    	BufferFrame loaded = loadFrame(pid);
+    	if (loaded == null)
+    		throw new DbException("Could not find Page.");
+
+    	synchronized (shard) {
+    		BufferFrame f = shard.frames.get(pid);
+    		if (f != null) {
+    			// another thread brought the page in meanwhile; use its copy
+    			releaseFrame(loaded.slot);
+    			shard.policy.frameAccessed(f, sequential);
+    		} else {
+    			f = addFrame(shard, loaded, sequential);
+    		}
+    		if (pin)
+    			f.pin();
+    		return f.getPage();
+    	}
+    }
+
+    /**
+     * Reads a page from its file into a new frame, in no shard yet, for a
+     * frame reserved by {@link #reserveFrame}. If the read fails, the
+     * reservation is given back.
+     *
+     * @return the frame, or null if the page could not be read
+     */
+    private BufferFrame loadFrame(PageId pid) {
+    	int slot = -1;
+    	Page p = null;
+    	try {
+    		DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+    		if (arena != null && file instanceof HeapFile) {
+    			slot = arena.allocate();
+    			p = ((HeapFile) file).readPage((HeapPageId) pid, arena.frame(slot));
+    		} else {
+    			p = file.readPage(pid);
+    		}
+    	} catch (NoSuchElementException e) {
+    		// reported below
+    	}
+    	if (p == null) {
+    		releaseFrame(slot);
+    		return null;
+    	}
+    	BufferFrame f = new BufferFrame(pid, p);
+    	f.slot = slot;
+    	return f;
+    }
+
+    /** Caches a frame read by {@link #loadFrame}; the caller holds the shard's monitor. */
+    private static BufferFrame addFrame(Shard shard, BufferFrame f,
+            boolean sequential) {
+    	shard.frames.put(f.getId(), f);
+    	shard.policy.frameAdded(f, sequential);
+    	return f;
+    }
+
+    /** Caches a page in a frame reserved by {@link #reserveFrame}. */
+    private static BufferFrame addFrame(Shard shard, PageId pid, Page p,
+            boolean sequential) {
+    	return addFrame(shard, new BufferFrame(pid, p), sequential);
+    }
+
+    /**
+     * Starts reading the specified page into the pool in the background, for
+     * a scan that will ask for it soon. The page is only read if tid already
+     * holds a lock that lets it read the page (a prefetch never waits for a
+     * lock), and only into a free frame or one whose clean, unpinned page
+     * can be evicted.
+     *
+     * @param tid the transaction the page is read for
+     * @param pid the page to read
+     * @return the prefetch, done with true once the page is in the pool, or
+     *   with false if it was not read
+     */
+    public Future<Boolean> prefetchPage(final TransactionId tid, final PageId pid) {
+    	FutureTask<Boolean> task = new FutureTask<Boolean>(() -> readAhead(tid, pid)) {
+    		protected void done() {
+    			prefetching.remove(pid, this);
+    		}
+    	};
+    	while (true) {
+    		Future<Boolean> running = prefetching.putIfAbsent(pid, task);
+    		if (running == null)
+    			break;
+    		if (!running.isDone())
+    			return running;
+    		// finished, but not yet out of the map; its result may be stale
+    		prefetching.remove(pid, running);
+    	}
+    	prefetcher.execute(task);
+    	return task;
+    }
+
+    /** @return the number of pages this pool holds */
+    public int getCapacity() {
+    	return numPages;
+    }
+
+    /**
+     * @return the most pages a scan should have on their way in at once, so
+     *   that read-ahead never takes more than a quarter of the pool
+     */
+    public int getMaxReadAhead() {
+    	return numPages / 4;
+    }
+
+    /** The work of {@link #prefetchPage}, on a prefetch thread. */
+    private boolean readAhead(TransactionId tid, PageId pid) {
+    	Shard shard = shardFor(pid);
+    	synchronized (shard) {
+    		if (shard.frames.containsKey(pid))
+    			return true;
+    	}
+    	if (!lm.holdsLock(tid, pid) || !tryReserveFrame(shard))
+    		return false;
+    	BufferFrame loaded = loadFrame(pid);
+    	if (loaded == null)
+    		return false;
+    	synchronized (shard) {
+    		// if the lock is gone, the page may have been updated since it was
+    		// read, so drop what was read
+    		if (shard.frames.containsKey(pid) || !lm.holdsLock(tid, pid)) {
+    			releaseFrame(loaded.slot);
+    			return shard.frames.containsKey(pid);
+    		}
+    		addFrame(shard, loaded, true);
+    		return true;
+    	}
+    }
+
+    /**
+     * Takes one of the pool's frames for a page about to be cached, evicting
+     * a page first if the pool is full.
+     */
+    private void reserveFrame(Shard home) throws DbException {
+    	while (true) {
+    		int n = numCached.get();
+    		if (n < numPages) {
+    			if (numCached.compareAndSet(n, n + 1))
+    				return;
+    		} else if (!evictPage(home, false) && !evictPage(home, true)) {
+    			throw new DbException("No Page to Evict: every page is pinned.");
+    		}
+    	}
+    }
+
+    /**
+     * Like {@link #reserveFrame}, but only evicts clean pages to make room.
+     *
+     * @return true if a frame was reserved
+     */
+    private boolean tryReserveFrame(Shard home) {
+    	while (true) {
+    		int n = numCached.get();
+    		if (n < numPages) {
+    			if (numCached.compareAndSet(n, n + 1))
+    				return true;
+    		} else {
+    			try {
+    				if (!evictPage(home, false))
+    					return false;
+    			} catch (DbException e) {
+    				return false; // can't happen when not stealing
+    			}
+    		}
+    	}
+    }
+
+    /**
+     * Gives back a frame taken by {@link #reserveFrame} that ended up unused,
+     * along with its arena slot, if it had one.
+     */
+    private void releaseFrame(int slot) {
+    	// the slot goes back first, so that whoever takes the frame finds it
+    	if (slot >= 0)
+    		arena.release(slot);
+    	numCached.decrementAndGet();
+    }
+
+    /**
+     * Replaces the page cached in f, detaching the one it held from f's arena
+     * slot if it was over it; the caller holds f's shard's monitor.
+     */
+    private static void replacePage(BufferFrame f, Page p) {
+    	Page old = f.getPage();
+    	f.setPage(p);
+    	if (old != p && old instanceof HeapPage)
+    		((HeapPage) old).detach();
+    }
+
+    /**
+     * Installs a page returned by a DbFile update as the cached version of
+     * that page, so future requests see the update.
+     */
+    private void cachePage(Page p) throws DbException {
+    	Shard shard = shardFor(p.getId());
+    	synchronized (shard) {
+    		BufferFrame f = shard.frames.get(p.getId());
+    		if (f != null) {
+    			replacePage(f, p);
+    			shard.policy.frameAccessed(f, false);
+    			return;
+    		}
+    	}
+    	reserveFrame(shard);
+    	synchronized (shard) {
+    		BufferFrame f = shard.frames.get(p.getId());
+    		if (f != null) {
+    			numCached.decrementAndGet();
+    			replacePage(f, p);
+    			shard.policy.frameAccessed(f, false);
+    			return;
+    		}
+    		addFrame(shard, p.getId(), p, false);
+    	}
+    }
+
+    /**
+     * Locks a whole table for the transaction, so that it can read (or, with
+     * READ_WRITE, update) every page of the table without taking a lock per
+     * page. Will block if a conflicting lock is held by another transaction.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param tableId the ID of the table to lock
+     * @param perm the requested permissions on the table
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+        throws TransactionAbortedException {
+    	lm.acquireTableLock(tid, tableId, perm);
     }
 
     /**
@@ -181,22 +667,103 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+    	HashMap<PageId, Integer> ps = pins.remove(tid);
+    	if (ps != null) {
+    		for (Map.Entry<PageId, Integer> e : ps.entrySet())
+    			unpinFrame(e.getKey(), e.getValue());
+    	}
     	try {
-    	for (PageId pid : idToPage.keySet()) {
-    		Page p = idToPage.get(pid);
-    		if (p.isDirty() != null && p.isDirty() == tid) {
-    			if (commit)
-    				flushPage(pid);
-    			else
-    				idToPage.put(pid, p.getBeforeImage());
+    		if (!commit && written.containsKey(tid)) {
+    			// some of its updates reached the disk; put the pages back
+    			// the way they were from the log
+    			undoWrites(tid, Database.getLogFile().readBeforeImages(tid));
+    		}
+    		if (commit) {
+    			flushTransaction(tid);
+    			// what it wrote is now what later transactions roll back to
+    			Set<PageId> ws = written.remove(tid);
+    			if (ws != null) {
+    				HashSet<Integer> tables = new HashSet<Integer>();
+    				for (PageId pid : ws) {
+    					tables.add(pid.getTableId());
+    					Shard shard = shardFor(pid);
+    					synchronized (shard) {
+    						BufferFrame f = shard.frames.get(pid);
+    						if (f != null)
+    							f.getPage().setBeforeImage();
+    					}
+    				}
+    				sync(tables);
+    			}
+    		} else {
+    			for (Shard shard : shards) {
+    				synchronized (shard) {
+    					for (BufferFrame f : shard.frames.values()) {
+    						Page p = f.getPage();
+    						if (p.isDirty() != null && p.isDirty() == tid) {
+    							Page before = p.getBeforeImage();
+    							replacePage(f, before);
+    							// the rollback may have made room on the page
+    							DbFile file = Database.getCatalog().getDatabaseFile(before.getId().getTableId());
+    							if (file instanceof HeapFile)
+    								((HeapFile) file).updateFreeSpace((HeapPage) before);
+    						}
+    					}
+    				}
+    			}
     		}
-    	}
-    	lm.releaseTransactionLocks(tid);
     	} catch (IOException e) {
     		e.printStackTrace();
+    	} finally {
+    		lm.releaseTransactionLocks(tid);
     	}
-    	
-    	
+    }
+
+    /**
+     * Puts pages a transaction dirtied, and that were written to disk before
+     * it finished, back the way they were before it touched them: each
+     * before image is written over the page on disk, and any cached copy of
+     * the page is dropped. Called on abort, by this pool or by
+     * {@link LogFile#rollback}, with the images read from the log.
+     *
+     * @param tid the transaction being rolled back
+     * @param beforeImages the before images of the pages to restore
+     */
+    void undoWrites(TransactionId tid, Map<PageId, Page> beforeImages)
+        throws IOException {
+    	for (Page before : beforeImages.values()) {
+    		discardPage(before.getId());
+    		DbFile file = Database.getCatalog().getDatabaseFile(before.getId().getTableId());
+    		file.writePage(before);
+    	}
+    	written.remove(tid);
+    }
+
+    /**
+     * Writes a run of new pages, built outside the pool by a bulk load,
+     * straight to the end of their file. Instead of an UPDATE record per
+     * page, one EXTENT record covers the run (see {@link LogFile#logExtent});
+     * the pages count as written by tid, so that they are synced when it
+     * commits and emptied again if it aborts. The caller holds an exclusive
+     * lock on the table.
+     *
+     * @param tid the transaction loading the pages
+     * @param file the file the pages are appended to
+     * @param pages the pages, consecutive and past the end of the file
+     */
+    public void writeExtent(TransactionId tid, HeapFile file, List<Page> pages)
+        throws IOException {
+    	if (pages.isEmpty())
+    		return;
+    	int first = pages.get(0).getId().getPageNumber();
+    	Database.getLogFile().logExtent(tid, file.getId(), first, pages.size());
+    	Set<PageId> ws = written.computeIfAbsent(tid, t -> ConcurrentHashMap.<PageId>newKeySet());
+    	for (Page p : pages) {
+    		// a stale copy of a page read past the end of the file
+    		discardPage(p.getId());
+    		ws.add(p.getId());
+    	}
+    	file.writePages(pages);
     }
 
     /**
@@ -221,7 +788,7 @@ public class BufferPool {
         for (int i = 0; i<ps.size(); i++) {
         		Page p = ps.get(i);
         		p.markDirty(true, tid);
-        		this.idToPage.put(p.getId(), p);
+        		cachePage(p);
         }
     }
 
@@ -246,7 +813,7 @@ public class BufferPool {
 	    for (int i = 0; i<ps.size(); i++) {
 	    		Page p = ps.get(i);
 	     		p.markDirty(true, tid);
-	     		this.idToPage.put(p.getId(), p);
+	     		cachePage(p);
 	    }
     }
 
@@ -255,10 +822,83 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
-    	for (Page p : idToPage.values()) {
-			flushPage(p.getId());
-		}
+    public void flushAllPages() throws IOException {
+    	for (Shard shard : shards) {
+    		synchronized (shard) {
+    			flushFrames(shard.frames.values());
+    		}
+    	}
+    }
+
+    /**
+     * Writes out every dirty page that isn't pinned, so that later commits
+     * and evictions have less to write. This is what the background writer
+     * started by {@link #startFlusher} does on every round.
+     *
+     * @return the number of pages written
+     */
+    public int writeDirtyPages() throws IOException {
+    	int count = 0;
+    	for (Shard shard : shards) {
+    		synchronized (shard) {
+    			ArrayList<BufferFrame> dirty = new ArrayList<BufferFrame>();
+    			for (BufferFrame f : shard.frames.values()) {
+    				if (f.getPinCount() == 0 && f.getPage().isDirty() != null)
+    					dirty.add(f);
+    			}
+    			flushFrames(dirty);
+    			count += dirty.size();
+    		}
+    	}
+    	if (syncPolicy == SyncPolicy.BATCH)
+    		syncBatch(false);
+    	return count;
+    }
+
+    /**
+     * Starts a background thread that calls {@link #writeDirtyPages} every
+     * intervalMillis milliseconds, until {@link #stopFlusher} is called.
+     * Does nothing if it is already running. A round that fails is logged,
+     * and the writer waits twice as long before each try after it, up to
+     * {@link #MAX_FLUSHER_BACKOFF} times the interval, until one succeeds.
+     */
+    public synchronized void startFlusher(final long intervalMillis) {
+    	if (flusher != null)
+    		return;
+    	flusher = new Thread("BufferPool flusher") {
+    		public void run() {
+    			long wait = intervalMillis;
+    			try {
+    				while (!isInterrupted()) {
+    					Thread.sleep(wait);
+    					try {
+    						writeDirtyPages();
+    						wait = intervalMillis;
+    					} catch (IOException e) {
+    						e.printStackTrace();
+    						wait = Math.min(2 * wait, MAX_FLUSHER_BACKOFF * intervalMillis);
+    					}
+    				}
+    			} catch (InterruptedException e) {
+    				// stopped
+    			}
+    		}
+    	};
+    	flusher.setDaemon(true);
+    	flusher.start();
+    }
+
+    /** Stops the background writer, waiting for it to finish its round. */
+    public synchronized void stopFlusher() {
+    	if (flusher == null)
+    		return;
+    	flusher.interrupt();
+    	try {
+    		flusher.join();
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	}
+    	flusher = null;
     }
     
     /** Remove the specific page id from the buffer pool.
@@ -269,37 +909,196 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
-    	idToPage.remove(pid);
+    public void discardPage(PageId pid) {
+    	Shard shard = shardFor(pid);
+    	synchronized (shard) {
+    		BufferFrame f = shard.frames.get(pid);
+    		if (f != null) {
+    			removeFrame(shard, f);
+    		}
+    	}
+    }
+
+    /** Drops a frame from its shard; the caller holds the shard's monitor. */
+    private void removeFrame(Shard shard, BufferFrame f) {
+    	shard.frames.remove(f.getId());
+    	shard.policy.frameRemoved(f);
+    	if (f.slot >= 0 && f.getPage() instanceof HeapPage)
+    		((HeapPage) f.getPage()).detach();
+    	releaseFrame(f.slot);
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
-    	try {
-	    	DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
-	    	Page p = idToPage.get(pid);
-	    	f.writePage(p);
-			p.markDirty(false, null);
-			this.idToPage.put(pid, p);
-    	} catch (IOException e) {
-    		throw e;
+    private void flushPage(PageId pid) throws IOException {
+    	Shard shard = shardFor(pid);
+    	synchronized (shard) {
+    		BufferFrame f = shard.frames.get(pid);
+    		if (f != null) {
+    			flushFrame(f);
+    		}
+    	}
+    }
+
+    /**
+     * Writes every page the transaction dirtied: all their updates are
+     * logged and the log forced once, then the pages are written together.
+     * Only the transaction itself may change its pages, so they are written
+     * without holding the shard monitors.
+     */
+    private void flushTransaction(TransactionId tid) throws IOException {
+    	LogFile log = Database.getLogFile();
+    	ArrayList<Page> pages = new ArrayList<Page>();
+    	for (Shard shard : shards) {
+    		synchronized (shard) {
+    			for (BufferFrame f : shard.frames.values()) {
+    				Page p = f.getPage();
+    				if (p.isDirty() != null && p.isDirty() == tid) {
+    					log.logWrite(tid, p.getBeforeImage(), p);
+    					pages.add(p);
+    				}
+    			}
+    		}
+    	}
+    	if (pages.isEmpty())
+    		return;
+    	log.force();
+    	writePages(pages);
+    	Set<PageId> ws = written.computeIfAbsent(tid, t -> ConcurrentHashMap.<PageId>newKeySet());
+    	for (Page p : pages) {
+    		p.markDirty(false, null);
+    		ws.add(p.getId());
+    	}
+    }
+
+    /** Writes pages to their files, a table at a time. */
+    private static void writePages(List<Page> pages) throws IOException {
+    	HashMap<Integer, ArrayList<Page>> byTable = new HashMap<Integer, ArrayList<Page>>();
+    	for (Page p : pages)
+    		byTable.computeIfAbsent(p.getId().getTableId(), t -> new ArrayList<Page>()).add(p);
+    	for (Map.Entry<Integer, ArrayList<Page>> e : byTable.entrySet()) {
+    		DbFile file = Database.getCatalog().getDatabaseFile(e.getKey());
+    		if (file instanceof HeapFile) {
+    			((HeapFile) file).writePages(e.getValue());
+    		} else {
+    			for (Page p : e.getValue())
+    				file.writePage(p);
+    		}
+    	}
+    }
+
+    /**
+     * Syncs the files of the given tables to disk, now or, under
+     * {@link SyncPolicy#BATCH}, with the next batch.
+     */
+    private void sync(Set<Integer> tables) throws IOException {
+    	if (syncPolicy == SyncPolicy.COMMIT) {
+    		for (int table : tables)
+    			syncTable(table);
+    	} else {
+    		unsynced.addAll(tables);
+    		syncBatch(false);
+    	}
+    }
+
+    /** Syncs the tables written to since the last batch, if it is time to. */
+    private void syncBatch(boolean force) throws IOException {
+    	long last = lastSync.get();
+    	long now = System.nanoTime();
+    	if (!force && now - last < syncIntervalMillis * 1000000L)
+    		return;
+    	if (!lastSync.compareAndSet(last, now))
+    		return; // another thread is syncing this batch
+    	for (Iterator<Integer> it = unsynced.iterator(); it.hasNext(); ) {
+    		int table = it.next();
+    		it.remove();
+    		syncTable(table);
+    		// a batch is rare enough to keep the free-space maps current too
+    		saveFreeSpaceMap(table);
+    	}
+    }
+
+    private static void syncTable(int table) throws IOException {
+    	DbFile file = Database.getCatalog().getDatabaseFile(table);
+    	if (file instanceof HeapFile)
+    		((HeapFile) file).force();
+    }
+
+    private static void saveFreeSpaceMap(int table) throws IOException {
+    	DbFile file = Database.getCatalog().getDatabaseFile(table);
+    	if (file instanceof HeapFile)
+    		((HeapFile) file).saveFreeSpaceMap();
+    }
+
+    /**
+     * Saves the free-space map of every table in the catalog that has
+     * changed since it was last saved; done at each checkpoint.
+     */
+    public void saveFreeSpaceMaps() throws IOException {
+    	for (Iterator<Integer> it = Database.getCatalog().tableIdIterator(); it.hasNext(); )
+    		saveFreeSpaceMap(it.next());
+    }
+
+    /**
+     * Sets when the files that committed pages are written to are synced to
+     * disk; see {@link SyncPolicy}.
+     *
+     * @param policy the sync policy
+     * @param intervalMillis under BATCH, how long files may go unsynced
+     */
+    public void setSyncPolicy(SyncPolicy policy, long intervalMillis) throws IOException {
+    	syncIntervalMillis = intervalMillis;
+    	syncPolicy = policy;
+    	if (policy == SyncPolicy.COMMIT)
+    		syncBatch(true);
+    }
+
+    /** Writes the page in f if it is dirty; the caller holds its shard's monitor. */
+    private void flushFrame(BufferFrame f) throws IOException {
+    	flushFrames(Collections.singletonList(f));
+    }
+
+    /**
+     * Writes the dirty pages among frames, all from one shard whose monitor
+     * the caller holds. Following the write-ahead rule, the update of every
+     * page is logged, and the log forced once for all of them, before any
+     * page is written.
+     */
+    private void flushFrames(Collection<BufferFrame> frames) throws IOException {
+    	LogFile log = null;
+    	for (BufferFrame f : frames) {
+    		Page p = f.getPage();
+    		TransactionId dirtier = p.isDirty();
+    		if (dirtier != null) {
+    			log = Database.getLogFile();
+    			log.logWrite(dirtier, p.getBeforeImage(), p);
+    		}
+    	}
+    	if (log == null)
+    		return; // nothing dirty
+    	log.force();
+    	ArrayList<Page> pages = new ArrayList<Page>();
+    	for (BufferFrame f : frames) {
+    		if (f.getPage().isDirty() != null)
+    			pages.add(f.getPage());
+    	}
+    	writePages(pages);
+    	for (Page p : pages) {
+    		written.computeIfAbsent(p.isDirty(),
+    				t -> ConcurrentHashMap.<PageId>newKeySet()).add(p.getId());
+    		p.markDirty(false, null);
     	}
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
     	try {
-        	for (PageId pid : idToPage.keySet()) {
-        		Page p = idToPage.get(pid);
-        		if (p.isDirty() != null && p.isDirty() == tid) 
-        				flushPage(pid);
-        	}
+    		flushTransaction(tid);
         	lm.releaseTransactionLocks(tid);
         	} catch (IOException e) {
         		e.printStackTrace();
@@ -309,151 +1108,57 @@ public class BufferPool {
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The page is chosen by the {@link ReplacementPolicy} of the home shard,
+     * or failing that of the next shard that has a victim. Callers ask for
+     * clean pages first: a dirty page should only be stolen, and written
+     * out, when no shard has a clean one to give up. Pinned pages are never
+     * chosen. Only one shard monitor is held at a time.
+     *
+     * @param home the shard that needs the room
+     * @param steal true if a dirty page may be evicted
+     * @return true if a page was evicted, false if there was no victim
      */
-    private synchronized void evictPage() throws DbException {
-    	PageId pid;
-    	for (int i = 0; i < q.size(); i++) {
-    		pid = q.get(i);
-    		if(idToPage.get(pid) != null && idToPage.get(pid).isDirty() == null) {
-    			q.remove(i);
-    	        discardPage(pid);
-    	        return;
+    private boolean evictPage(Shard home, boolean steal) throws DbException {
+    	for (int i = 0; i < shards.length; i++) {
+    		Shard shard = shards[(home.index + i) % shards.length];
+    		synchronized (shard) {
+    			BufferFrame victim = shard.policy.chooseVictim(steal);
+    			if (victim != null) {
+    				try {
+    					flushFrame(victim);
+    				} catch (IOException e) {
+    					throw new DbException("Could not write out page " + victim.getId() + ": " + e.getMessage());
+    				}
+    				removeFrame(shard, victim);
+    				return true;
+    			}
     		}
     	}
-    	throw new DbException("No Clean Page to Evict.");
-        
-        
-        
+    	return false;
     }
-    
-    
-    
-private class LockManager {
-    	
-    	private ConcurrentHashMap<PageId, Set<TransactionId>> sharedLocks;
-    	private ConcurrentHashMap<PageId, TransactionId> exclusiveLocks;
-    	
-    	
-    	public LockManager() {
-    		sharedLocks = new ConcurrentHashMap<PageId, Set<TransactionId>>();
-    		exclusiveLocks = new ConcurrentHashMap<PageId, TransactionId>();
-    		
-    	}
-    	
-    	
-    	public synchronized void addSharer(TransactionId tid, PageId pid) {
-    		if (sharedLocks.get(pid) == null)
-    			sharedLocks.put(pid, new HashSet<TransactionId>());
-    		sharedLocks.get(pid).add(tid);
-    	}
-    	
-    	public synchronized void removeSharer(TransactionId tid, PageId pid) {
-    		Set<TransactionId> sharers = sharedLocks.get(pid);
-    		if (sharers.contains(tid)) {
-    			sharers.remove(tid);
-    		}
-    	}
-    	
-    	public synchronized void addOwner(TransactionId tid, PageId pid) {
-    		exclusiveLocks.put(pid, tid);
-    	}
-    	public synchronized void removeOwner(TransactionId tid, PageId pid) {
-    		exclusiveLocks.remove(pid, tid);
-    	}
-   
-    	public synchronized boolean grantSharedLock(TransactionId tid, PageId pid) {
-    		Set<TransactionId> sharers = sharedLocks.get(pid);
-    		TransactionId owner = exclusiveLocks.get(pid);
-    		
-    		// there is an owner which is not this transaction
-    		if (owner != null && !owner.equals(tid))
-    			return false;
-    		
-    		if (sharers != null && sharers.contains(tid))
-    			return true;
-    		
-    		// no owner so we can safely add this tid to the sharers
-    		// since we use a set<tid> we don't have to check if already share
-    		if (owner == null)
-    			addSharer(tid, pid);
-    		
-    		// else owner is this tid so we don't do anything
-    		return true;
-    		
-    	}
-    	
-    	public synchronized boolean grantExclusiveLock(TransactionId tid, PageId pid) {
-    		Set<TransactionId> sharers = sharedLocks.get(pid);
-    		TransactionId owner = exclusiveLocks.get(pid);
-    		
-    		// there is an owner which is not this transaction
-    		if (owner != null && !owner.equals(tid)) {
-    			return false;
-    		}
-    		else if (owner != null && owner.equals(tid))
-    			return true;
-    		
-    		if (sharers != null) {
-    			
-    			// either multiple sharers or 1 sharer which is not tid
-    			// cannot upgrade
-    			if (sharers.size() > 1 || sharers.size() == 1 && !sharers.contains(tid))
-    				return false;
-    			
-    			// can upgrade
-    			removeSharer(tid, pid);
-    		}
-    		addOwner(tid, pid);
-    		return true;
-    	}
-    	
-    	public synchronized boolean holdsLock (TransactionId tid, PageId pid) {
-    		Set<TransactionId> sharers = sharedLocks.get(pid);
-    		TransactionId owner = exclusiveLocks.get(pid);
-    		
-    		if (owner != null && owner.equals(tid))
-    			return true;
-    		
-    		if (sharers != null && sharers.contains(tid))
-    			return true;
-    		return false;
-    	}
-    	
-    	public synchronized void releaseLock (TransactionId tid, PageId pid) {
-    		Set<TransactionId> sharers = sharedLocks.get(pid);
-    		TransactionId owner = exclusiveLocks.get(pid);
-    		
-    		if (owner != null && owner.equals(tid)) {
-    			removeOwner(tid, pid);
-    		}
-    		
-    		if (sharers != null && sharers.contains(tid)) {
-    			sharers.remove(tid);
-    		}
-    		return;
-    	}
-    	
-    	public synchronized void releaseTransactionLocks(TransactionId tid) {
-    		for (PageId pid : sharedLocks.keySet()) {
-    			releaseLock(tid, pid);
-    		}
-    		for (PageId pid : exclusiveLocks.keySet()) {
-    			releaseLock(tid, pid);
-    		}
-    	}
-    	
-    	public synchronized boolean grantLock(TransactionId tid, PageId pid, Permissions perm) {
-    		boolean acquiredLock = false;
-    		if (perm.equals(Permissions.READ_ONLY))
-    			acquiredLock = grantSharedLock(tid, pid);
-    		else if (perm.equals(Permissions.READ_WRITE))
-    			acquiredLock = grantExclusiveLock(tid, pid);
-    		return acquiredLock;
-    		
-    	}
-    	
-    	
-    	
+
+    /**
+     * Sets how long a transaction may wait for a page lock before it is
+     * aborted; see {@link LockManager#setTimeout}.
+     */
+    public void setLockTimeout(long timeoutMillis) {
+    	lm.setTimeout(timeoutMillis);
+    }
+
+    /**
+     * Sets how many pages of one table a transaction may lock before its
+     * page locks are escalated to a table lock; see
+     * {@link LockManager#setEscalationThreshold}.
+     */
+    public void setLockEscalationThreshold(int pages) {
+    	lm.setEscalationThreshold(pages);
     }
 
-}
\ No newline at end of file
+    /**
+     * Sets how the transaction aborted to break a deadlock is chosen; see
+     * {@link LockManager.VictimPolicy}.
+     */
+    public void setDeadlockVictimPolicy(LockManager.VictimPolicy policy) {
+    	lm.setVictimPolicy(policy);
+    }
+}
@@ -0,0 +1,204 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * BulkLoader appends many tuples to a HeapFile at once, much faster than
+ * inserting them one at a time. Rather than finding a page with room, and
+ * locking, dirtying and logging it, for every tuple, it packs the tuples
+ * into new pages of its own, after the last page of the file, and writes
+ * them out in extents of consecutive pages with one gathering write each.
+ * <p>
+ * The table is locked exclusively for the rest of the transaction when the
+ * load is opened. The pages never pass through the BufferPool, and are not
+ * logged page by page: each extent gets a single EXTENT record in the log
+ * (see {@link BufferPool#writeExtent}). The pages are synced to disk when
+ * the transaction commits; if it aborts they are emptied, and left for
+ * later inserts to fill.
+ * <p>
+ * Usage: open, then add tuples (or load them from an iterator or a text
+ * file), then close, before the transaction completes.
+ *
+ * @see HeapFile
+ */
+public class BulkLoader {
+
+    /** Default number of pages in each extent written. */
+    public static final int DEFAULT_EXTENT_PAGES = 64;
+
+    private final TransactionId tid;
+    private final HeapFile file;
+    private final int extentPages;
+
+    // the pages of the current extent, the last being filled
+    private final ArrayList<Page> extent = new ArrayList<Page>();
+    private HeapPage page;
+    private int slot;
+    private int nextPage = -1;
+    private int count;
+
+    /**
+     * Creates a loader that writes extents of DEFAULT_EXTENT_PAGES pages.
+     *
+     * @param tid the transaction loading the tuples
+     * @param file the file to append the tuples to
+     */
+    public BulkLoader(TransactionId tid, HeapFile file) {
+        this(tid, file, DEFAULT_EXTENT_PAGES);
+    }
+
+    /**
+     * @param tid the transaction loading the tuples
+     * @param file the file to append the tuples to
+     * @param extentPages the number of pages to write at a time
+     */
+    public BulkLoader(TransactionId tid, HeapFile file, int extentPages) {
+        if (extentPages < 1)
+            throw new IllegalArgumentException("extentPages must be positive");
+        this.tid = tid;
+        this.file = file;
+        this.extentPages = extentPages;
+    }
+
+    /**
+     * Locks the table exclusively, and starts the load after its last page.
+     */
+    public void open() throws DbException, TransactionAbortedException {
+        Database.getBufferPool().lockTable(tid, file.getId(), Permissions.READ_WRITE);
+        nextPage = file.numPages();
+        count = 0;
+    }
+
+    /**
+     * Adds a tuple to the load. It is written when its extent fills up, or
+     * by {@link #close}.
+     *
+     * @param t the tuple, of the file's TupleDesc
+     */
+    public void add(Tuple t) throws DbException, IOException {
+        if (nextPage < 0)
+            throw new DbException("BulkLoader is not open");
+        if (!t.getTupleDesc().equals(file.getTupleDesc()))
+            throw new DbException("The tuple descriptor does not match.");
+        if (page == null || slot == page.numSlots) {
+            if (extent.size() == extentPages)
+                writeExtent();
+            try {
+                page = new HeapPage(new HeapPageId(file.getId(), nextPage++),
+                        HeapPage.createEmptyPageData());
+            } catch (IOException e) {
+                throw new DbException("Could not create page: " + e.getMessage());
+            }
+            extent.add(page);
+            slot = 0;
+        }
+        page.insertTuple(t, slot++);
+        count++;
+    }
+
+    /**
+     * Adds every tuple of an iterator to the load.
+     *
+     * @param child the tuples to load; opened and closed here
+     * @return the number of tuples loaded
+     */
+    public int load(OpIterator child)
+            throws DbException, TransactionAbortedException, IOException {
+        int n = 0;
+        child.open();
+        try {
+            while (child.hasNext()) {
+                add(child.next());
+                n++;
+            }
+        } finally {
+            child.close();
+        }
+        return n;
+    }
+
+    /**
+     * Adds the tuples of a text file to the load, one a line, with fields
+     * in the order of the file's TupleDesc. Lines are read just as
+     * HeapFileEncoder reads them (see {@link HeapFileEncoder#encodeLine}).
+     *
+     * @param in the text file
+     * @param fieldSeparator the character between fields
+     * @return the number of tuples loaded
+     * @throws DbException if a line has more or fewer fields than the table
+     */
+    public int load(File in, char fieldSeparator)
+            throws DbException, IOException {
+        TupleDesc td = file.getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = td.getFieldType(i);
+        ByteBuffer record = ByteBuffer.allocate(td.getSize());
+        int n = 0;
+        try (InputStream is = new FileInputStream(in)) {
+            byte[] buf = new byte[1 << 16];
+            byte[] line = new byte[256];
+            int len = 0;
+            int r;
+            while ((r = is.read(buf)) >= 0) {
+                for (int i = 0; i < r; i++) {
+                    if (buf[i] != '\n') {
+                        if (len == line.length)
+                            line = Arrays.copyOf(line, 2 * len);
+                        line[len++] = buf[i];
+                    } else {
+                        n += addLine(line, len, types, (byte) fieldSeparator, record);
+                        len = 0;
+                    }
+                }
+            }
+            // the last line need not end with '\n'
+            n += addLine(line, len, types, (byte) fieldSeparator, record);
+        }
+        return n;
+    }
+
+    // Adds the tuple of a line of text; returns 1, or 0 if it was blank.
+    private int addLine(byte[] line, int len, Type[] types, byte separator,
+            ByteBuffer record) throws DbException, IOException {
+        Arrays.fill(record.array(), (byte) 0);
+        try {
+            if (!HeapFileEncoder.encodeLine(line, 0, len, types, separator, record, 0))
+                return 0;
+        } catch (IOException e) {
+            throw new DbException(e.getMessage());
+        }
+        TupleDesc td = file.getTupleDesc();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < types.length; i++)
+            t.setField(i, types[i].parse(record, td.getOffset(i)));
+        add(t);
+        return 1;
+    }
+
+    /**
+     * Writes out the tuples added since the last extent was written. The
+     * loader can be opened again for another load in the same transaction.
+     *
+     * @return the number of tuples loaded since it was opened
+     */
+    public int close() throws IOException {
+        writeExtent();
+        page = null;
+        nextPage = -1;
+        return count;
+    }
+
+    private void writeExtent() throws IOException {
+        Database.getBufferPool().writeExtent(tid, file, extent);
+        extent.clear();
+    }
+
+    /** @return the number of tuples added since the load was opened */
+    public int getCount() {
+        return count;
+    }
+}
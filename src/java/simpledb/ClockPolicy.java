@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * CLOCK (second chance) replacement. Frames form a ring threaded through the
+ * frames themselves; a hit only sets the frame's reference bit, and the hand
+ * sweeps the ring clearing bits until it finds an unreferenced, evictable
+ * frame. Sequential accesses do not set the reference bit, so pages brought
+ * in by a scan are the first to go.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private BufferFrame hand;
+    private int size;
+
+    public void frameAdded(BufferFrame f, boolean sequential) {
+        f.referenced = !sequential;
+        if (hand == null) {
+            f.prev = f;
+            f.next = f;
+            hand = f;
+        } else {
+            // insert just behind the hand, so the new frame is swept last
+            f.prev = hand.prev;
+            f.next = hand;
+            hand.prev.next = f;
+            hand.prev = f;
+        }
+        size++;
+    }
+
+    public void frameAccessed(BufferFrame f, boolean sequential) {
+        if (!sequential)
+            f.referenced = true;
+    }
+
+    public void frameRemoved(BufferFrame f) {
+        if (f.next == null)
+            return;
+        if (--size == 0) {
+            hand = null;
+        } else {
+            if (hand == f)
+                hand = f.next;
+            f.prev.next = f.next;
+            f.next.prev = f.prev;
+        }
+        f.prev = null;
+        f.next = null;
+    }
+
+    public BufferFrame chooseVictim(boolean steal) {
+        // two sweeps clear every reference bit, so if nothing turns up by
+        // then, every frame is pinned down by something other than its bit
+        for (int i = 0; i < 2 * size; i++) {
+            BufferFrame f = hand;
+            hand = hand.next;
+            if (!f.isEvictable(steal))
+                continue;
+            if (f.referenced) {
+                f.referenced = false;
+                continue;
+            }
+            return f;
+        }
+        return null;
+    }
+}
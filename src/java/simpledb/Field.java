@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -14,6 +15,16 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field, as {@link #serialize(DataOutputStream)}
+     * would, into buf starting at offset; the reverse of
+     * {@link Type#parse(ByteBuffer, int)}. The buffer's position is not used
+     * or changed.
+     * @param buf The buffer to write to
+     * @param offset The index of the first byte of the field in buf
+     */
+    void serialize(ByteBuffer buf, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
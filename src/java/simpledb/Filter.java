@@ -73,6 +73,20 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Filters the child's batches in place, narrowing their selection, and
+     * returns the first with any rows left.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null) {
+            pred.filter(b);
+            if (b.numRows() > 0)
+                return b;
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return children;
@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Off-heap memory for the frames of a BufferPool: one direct ByteBuffer
+ * region cut into page-sized slots, so that the page images of a large pool
+ * live outside the Java heap and add nothing to garbage collection work.
+ * A direct buffer can't be larger than 2 GB, so bigger pools are split
+ * into several regions.
+ * <p>
+ * A slot is taken with {@link #allocate} and handed back with
+ * {@link #release}; {@link #frame} returns a view of its bytes.
+ *
+ * @see BufferPool
+ */
+class FrameArena {
+
+    private final int pageSize;
+    private final int slotsPerRegion;
+    private final ByteBuffer[] regions;
+
+    // stack of free slots; guarded by this
+    private final int[] free;
+    private int numFree;
+
+    /**
+     * Allocates the memory for numSlots page-sized slots.
+     */
+    FrameArena(int numSlots, int pageSize) {
+        this.pageSize = pageSize;
+        this.slotsPerRegion = Integer.MAX_VALUE / pageSize;
+        int numRegions = (numSlots + slotsPerRegion - 1) / slotsPerRegion;
+        regions = new ByteBuffer[numRegions];
+        for (int i = 0; i < numRegions; i++) {
+            int slots = Math.min(slotsPerRegion, numSlots - i * slotsPerRegion);
+            regions[i] = ByteBuffer.allocateDirect(slots * pageSize);
+        }
+        free = new int[numSlots];
+        for (int i = 0; i < numSlots; i++)
+            free[i] = numSlots - 1 - i;
+        numFree = numSlots;
+    }
+
+    /**
+     * Takes a free slot.
+     *
+     * @return the slot, or -1 if every slot is in use
+     */
+    synchronized int allocate() {
+        return numFree == 0 ? -1 : free[--numFree];
+    }
+
+    /** Hands a slot taken by {@link #allocate} back. */
+    synchronized void release(int slot) {
+        free[numFree++] = slot;
+    }
+
+    /**
+     * @return a buffer over the bytes of the slot, with position 0 and
+     *   capacity and limit of one page. Each call returns a new view.
+     */
+    ByteBuffer frame(int slot) {
+        ByteBuffer b = regions[slot / slotsPerRegion].duplicate();
+        int start = (slot % slotsPerRegion) * pageSize;
+        b.limit(start + pageSize);
+        b.position(start);
+        return b.slice();
+    }
+}
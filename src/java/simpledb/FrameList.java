@@ -0,0 +1,57 @@
+package simpledb;
+
+/**
+ * A doubly linked list of BufferFrames threaded through the frames' own
+ * prev/next links, used by the list-based replacement policies. A frame can
+ * be on at most one FrameList at a time.
+ */
+class FrameList {
+
+    // sentinel; head.next is the first frame, head.prev the last
+    private final BufferFrame head = new BufferFrame(null, null);
+    private int size;
+
+    FrameList() {
+        head.prev = head;
+        head.next = head;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void addLast(BufferFrame f) {
+        f.prev = head.prev;
+        f.next = head;
+        head.prev.next = f;
+        head.prev = f;
+        size++;
+    }
+
+    void moveToLast(BufferFrame f) {
+        remove(f);
+        addLast(f);
+    }
+
+    void remove(BufferFrame f) {
+        if (f.prev == null)
+            return;
+        f.prev.next = f.next;
+        f.next.prev = f.prev;
+        f.prev = null;
+        f.next = null;
+        size--;
+    }
+
+    /**
+     * @return the first evictable frame, starting from the front, or null;
+     *   see {@link BufferFrame#isEvictable(boolean)}
+     */
+    BufferFrame firstEvictable(boolean steal) {
+        for (BufferFrame f = head.next; f != head; f = f.next) {
+            if (f.isEvictable(steal))
+                return f;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * The free-space map of a HeapFile: one bit per page, set when the page is
+ * known to be full, so that an insert can go straight to a page with room
+ * instead of locking and reading every full page ahead of it. Pages past
+ * the end of the map, and pages the map knows nothing about, are taken to
+ * have room.
+ * <p>
+ * The map is only a hint. An insert still checks the page it is sent to,
+ * and marks the page full if it turns out to be. A page wrongly marked full
+ * only wastes its free slots until a delete or a rollback on it is seen.
+ * <p>
+ * The map is kept next to the table's data file (table.dat has table.fsm)
+ * and written by {@link #save}, along with the number of pages and the
+ * modification time of the data file it describes. A saved map that doesn't
+ * match the data file, because the file was rewritten or written to after
+ * the map was saved, is not used.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    private final File dataFile;
+    private final File file;
+    // bit i set when page i is full; guarded by this
+    private final BitSet full = new BitSet();
+    // true if changed since it was loaded or saved; guarded by this
+    private boolean dirty;
+    // the size and modification time of the data file the saved map
+    // describes; guarded by this
+    private int savedPages = -1;
+    private long savedModified = -1;
+
+    /**
+     * Loads the free-space map of the data file dataFile, or starts an
+     * empty one if it has none.
+     *
+     * @param dataFile the table's data file
+     * @param numPages the number of pages in the data file
+     */
+    public FreeSpaceMap(File dataFile, int numPages) {
+        this.dataFile = dataFile;
+        this.file = mapFile(dataFile);
+        load(numPages);
+    }
+
+    /** @return the file the map of dataFile is kept in */
+    public static File mapFile(File dataFile) {
+        String name = dataFile.getName();
+        if (name.endsWith(".dat"))
+            name = name.substring(0, name.length() - ".dat".length());
+        return new File(dataFile.getAbsoluteFile().getParentFile(), name + ".fsm");
+    }
+
+    private synchronized void load(int numPages) {
+        if (!file.exists())
+            return;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != numPages || in.readLong() != dataFile.lastModified())
+                return;
+            long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++)
+                words[i] = in.readLong();
+            full.or(BitSet.valueOf(words));
+            savedPages = numPages;
+            savedModified = dataFile.lastModified();
+        } catch (IOException e) {
+            // unreadable or cut short; start with no page known to be full
+            full.clear();
+        }
+    }
+
+    /**
+     * @return the first page at or after pgNo that may have room; when no
+     *   page of the file does, this is a page number past its end
+     */
+    public synchronized int nextWithRoom(int pgNo) {
+        return full.nextClearBit(pgNo);
+    }
+
+    /** Records whether page pgNo is full. */
+    public synchronized void setFull(int pgNo, boolean isFull) {
+        if (full.get(pgNo) != isFull) {
+            full.set(pgNo, isFull);
+            dirty = true;
+        }
+    }
+
+    /** @return true if page pgNo is known to be full */
+    public synchronized boolean isFull(int pgNo) {
+        return full.get(pgNo);
+    }
+
+    /**
+     * Writes the map out, if it changed since it was last written.
+     *
+     * @param numPages the number of pages in the data file now
+     * @throws IOException if the map can't be written
+     */
+    public synchronized void save(int numPages) throws IOException {
+        long modified = dataFile.lastModified();
+        if (!dirty && savedPages == numPages && savedModified == modified)
+            return;
+        long[] words = full.get(0, numPages).toLongArray();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(numPages);
+            out.writeLong(modified);
+            out.writeInt(words.length);
+            for (long w : words)
+                out.writeLong(w);
+        }
+        dirty = false;
+        savedPages = numPages;
+        savedModified = modified;
+    }
+}
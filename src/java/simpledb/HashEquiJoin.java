@@ -4,19 +4,62 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join. It builds a hash table on the left
+ * (outer) relation and probes it with the right (inner) one. When the outer
+ * relation doesn't fit in memory, both are split into PARTITIONS partitions
+ * by a hash of the join field. The biggest partitions of the outer relation
+ * go to temporary files, as many as it takes for the rest to fit, along
+ * with the inner tuples that would join with them; the others stay in the
+ * table and are probed as usual. Each spilled partition is then joined
+ * on its own, and one still too big for memory is split again with another
+ * hash. So each input is read once and written at most once per level,
+ * however big the outer relation is.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** The number of partitions a relation too big for memory is split into. */
+    public static final int PARTITIONS = 16;
+
+    // how many times a partition is split again before its skew is taken to
+    // be beyond splitting, and it is joined a memory-full at a time instead
+    static final int MAX_LEVEL = 3;
+
+    // what route() says to do with an inner tuple that isn't spilled
+    private static final int PROBE = -1;
+
     private JoinPredicate p;
     private OpIterator child1;
     private OpIterator child2;
     private OpIterator[] children;
+    private final int level;
     HashMap<Object, ArrayList<Tuple>> map;
     private Tuple rt;
     private TupleDesc td;
-    private int tuplesInBuffer;
+    // how many outer tuples the table may hold, and how many there were
+    private int memoryTuples;
+    private int buildCount;
+
+    // the spilled partitions of the outer and inner relations, or null if
+    // the outer one fit in memory; how many outer tuples of each partition
+    // are in the table; how many inner tuples were spilled; and whether the
+    // inner relation is being read and split now
+    private transient SpillFile[] buildSpill;
+    private transient SpillFile[] probeSpill;
+    private transient int[] partSize;
+    private int probeSpilled;
+    private boolean routing;
+    // the next spilled partition to join, and the one being joined
+    private int nextPartition;
+    private int current;
+    // what is being joined now: the inner tuples to probe with, and either
+    // the spilled outer partition they are probing a memory-full at a time,
+    // or the join of a partition that was split again
+    private transient OpIterator probeSide;
+    private transient OpIterator buildSide;
+    private transient HashEquiJoin sub;
     
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -30,11 +73,18 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, 0);
+    }
+
+    // joins a partition split level times already, splitting it further
+    // with a hash of its own
+    private HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int level) {
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.level = level;
+        current = -1;
         children = new OpIterator[]{child1, child2};
-        tuplesInBuffer = BufferPool.getNumPages()*BufferPool.getPageSize()/child1.getTupleDesc().getSize();
         td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -56,45 +106,226 @@ public class HashEquiJoin extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        // the table may take as much memory as the buffer pool's pages
+        memoryTuples = Math.max(1, Database.getBufferPool().getCapacity()
+                * BufferPool.getPageSize() / child1.getTupleDesc().getSize());
     	child1.open();
-    	fillHashMap();
         child2.open();
         super.open();
+        build();
     }
 
     public void close() {
+        endPhase();
+        deleteSpills();
     	child1.close();
         child2.close();
         super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        endPhase();
+        deleteSpills();
         child1.rewind();
         child2.rewind();
-        rt = null;
+        build();
     }
 
     transient Iterator<Tuple> listIt = null;
 
-    // Fills the hash map with as many values fit into the buffer pool.
-    public int fillHashMap() throws DbException, TransactionAbortedException {
+    // nextBatch's output, the inner batch being probed with, and the
+    // matches of its current row
+    private transient TupleBatch out;
+    private transient TupleBatch probe;
+    private transient int probePos;
+    private transient int probeRow;
+    private transient ArrayList<Tuple> matches;
+    private transient int matchPos;
+
+    // Reads the outer relation into the table, partitioning it if it
+    // doesn't fit, and readies the inner relation to probe it with.
+    private void build() throws DbException, TransactionAbortedException {
+        map = new HashMap<Object, ArrayList<Tuple>>();
+        buildSpill = null;
+        probeSpill = null;
+        partSize = new int[PARTITIONS];
+        probeSpilled = 0;
+        nextPartition = 0;
+        current = -1;
+        probeSide = child2;
+        rt = null;
+        listIt = null;
+        probe = null;
+        matches = null;
+        buildCount = 0;
+        int inMemory = 0;
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            buildCount++;
+            int part = partition(t.getField(p.getField1()));
+            if (buildSpill != null && buildSpill[part] != null) {
+                buildSpill[part].add(t);
+                continue;
+            }
+            put(t);
+            partSize[part]++;
+            if (++inMemory > memoryTuples)
+                inMemory = overflow(inMemory);
+        }
+        routing = buildSpill != null;
+    }
+
+    // The table is full: moves the biggest partitions still in it to disk,
+    // until what is left fits, and from now on spills any outer tuple of
+    // theirs. Returns how many tuples the table has left.
+    private int overflow(int inMemory) throws DbException {
+        if (buildSpill == null) {
+            buildSpill = new SpillFile[PARTITIONS];
+            probeSpill = new SpillFile[PARTITIONS];
+        }
+        while (inMemory > memoryTuples) {
+            int part = 0;
+            for (int i = 1; i < PARTITIONS; i++)
+                if (partSize[i] > partSize[part])
+                    part = i;
+            for (Iterator<ArrayList<Tuple>> it = map.values().iterator(); it.hasNext();) {
+                ArrayList<Tuple> l = it.next();
+                if (partition(l.get(0).getField(p.getField1())) != part)
+                    continue;
+                for (Tuple t : l)
+                    spill(buildSpill, part, t);
+                it.remove();
+            }
+            inMemory -= partSize[part];
+            partSize[part] = 0;
+        }
+        return inMemory;
+    }
+
+    private void put(Tuple t) {
+        Field key = t.getField(p.getField1());
+        ArrayList<Tuple> l = map.get(key);
+        if (l == null) {
+            l = new ArrayList<Tuple>();
+            map.put(key, l);
+        }
+        l.add(t);
+    }
+
+    private void spill(SpillFile[] files, int part, Tuple t) throws DbException {
+        if (files[part] == null)
+            files[part] = new SpillFile(t.getTupleDesc());
+        files[part].add(t);
+    }
+
+    // Spills an inner tuple of a partition whose outer tuples are on disk.
+    private void spillProbe(int part, Tuple t) throws DbException {
+        spill(probeSpill, part, t);
+        probeSpilled++;
+    }
+
+    /** @return how many inner tuples the last open or rewind set aside on disk */
+    int probeTuplesSpilled() {
+        return probeSpilled;
+    }
+
+    // The partition of a join field value: a different hash at each level,
+    // so that a partition split again doesn't all land in one place.
+    private int partition(Field key) {
+        int h = key.hashCode() ^ (level * 0x9e3779b9);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h >>> 1) % PARTITIONS;
+    }
+
+    // Where an inner tuple goes: PROBE to probe the table with it, or the
+    // partition to spill it to if the outer tuples of that one are on disk.
+    private int route(Field key) {
+        if (!routing)
+            return PROBE;
+        int part = partition(key);
+        return buildSpill[part] != null ? part : PROBE;
+    }
+
+    // Fills the table with the next memory-full of the spilled outer
+    // partition being joined; returns how many tuples it took.
+    private int fillHashMap() throws DbException, TransactionAbortedException {
     	int values = 0;
     	map = new HashMap<Object, ArrayList<Tuple>>();
-    	try {
-    	while (child1.hasNext() && values <= tuplesInBuffer) {
-    		Tuple t = child1.next();
-    		ArrayList<Tuple> l = map.get(t.getField(p.getField1()));
-    		if (l == null) {
-    			l = new ArrayList<Tuple>();
-    			map.put(t.getField(p.getField1()), l);
-    		}
-    		l.add(t);
+    	while (values < memoryTuples && buildSide.hasNext()) {
+    		put(buildSide.next());
     		values++;
     	}
-		return values;
-    	} catch (Exception e) {
-    		throw new DbException("Could not fill buffer pool.");
-    	}
+    	return values;
+    }
+
+    // The inner tuples have all probed the table: moves on to the next
+    // memory-full of the partition being joined, or the next partition.
+    // Returns false when there is nothing left to join.
+    private boolean nextPhase() throws DbException, TransactionAbortedException {
+        if (buildSide != null && fillHashMap() > 0) {
+            probeSide.rewind();
+            return true;
+        }
+        endPhase();
+        while (buildSpill != null && nextPartition < PARTITIONS) {
+            int i = nextPartition++;
+            if (buildSpill[i] == null || probeSpill[i] == null)
+                continue;
+            current = i;
+            SpillFile b = buildSpill[i];
+            probeSide = probeSpill[i].iterator();
+            if (b.size() > memoryTuples && level < MAX_LEVEL && b.size() < buildCount) {
+                sub = new HashEquiJoin(p, b.iterator(), probeSide, level + 1);
+                sub.open();
+            } else {
+                buildSide = b.iterator();
+                buildSide.open();
+                probeSide.open();
+                fillHashMap();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Ends joining the current partition, and removes its files.
+    private void endPhase() {
+        routing = false;
+        map = null;
+        if (sub != null) {
+            sub.close();
+            sub = null;
+        }
+        if (buildSide != null) {
+            buildSide.close();
+            buildSide = null;
+        }
+        if (probeSide != null && probeSide != child2)
+            probeSide.close();
+        probeSide = child2;
+        if (current >= 0) {
+            buildSpill[current].delete();
+            probeSpill[current].delete();
+            buildSpill[current] = null;
+            probeSpill[current] = null;
+            current = -1;
+        }
+    }
+
+    private void deleteSpills() {
+        for (SpillFile[] files : new SpillFile[][] { buildSpill, probeSpill }) {
+            if (files == null)
+                continue;
+            for (SpillFile f : files)
+                if (f != null)
+                    f.delete();
+        }
+        buildSpill = null;
+        probeSpill = null;
     }
     
     /**
@@ -132,24 +363,75 @@ public class HashEquiJoin extends Operator {
     }
     
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-    	if (listIt != null && listIt.hasNext()) {
-    		return fetchNextInList();
-    	}
-        while (child2.hasNext()) {
-            rt = child2.next();
-            ArrayList<Tuple> l = map.get(rt.getField(p.getField2()));
-            if (l != null) {
-                listIt = l.iterator();
-                return fetchNextInList();	
+        while (true) {
+            if (sub != null) {
+                if (sub.hasNext())
+                    return sub.next();
+            } else if (listIt != null && listIt.hasNext()) {
+                return fetchNextInList();
+            } else if (probeSide.hasNext()) {
+                rt = probeSide.next();
+                listIt = null;
+                Field key = rt.getField(p.getField2());
+                int r = route(key);
+                if (r == PROBE) {
+                    ArrayList<Tuple> l = map.get(key);
+                    if (l != null)
+                        listIt = l.iterator();
+                } else {
+                    spillProbe(r, rt);
+                }
+                continue;
             }
-        }	
-        child2.rewind();
-        // Try to fill the hash map with more values. If it does, reiterate.
-        if (fillHashMap() > 0) {
-            return fetchNext();
+            listIt = null;
+            if (!nextPhase())
+                return null;
         }
-        
-        return null;
+    }
+
+    /**
+     * Probes the hash table with the inner relation a batch at a time, and
+     * returns the joined tuples in batches, as fetchNext would one at a
+     * time.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            out = new TupleBatch(td);
+        out.clear();
+        while (!out.isFull()) {
+            if (sub != null) {
+                // hand on the split partition's batches as they come
+                if (out.numRows() > 0)
+                    break;
+                TupleBatch b = sub.nextBatch();
+                if (b != null)
+                    return b;
+            } else if (matches != null && matchPos < matches.size()) {
+                out.addJoined(matches.get(matchPos++), probe, probeRow);
+                continue;
+            } else if (probe != null && probePos < probe.numRows()) {
+                int i = probePos++;
+                probeRow = probe.row(i);
+                Field key = probe.getField(p.getField2(), probeRow);
+                matches = null;
+                matchPos = 0;
+                int r = route(key);
+                if (r == PROBE)
+                    matches = map.get(key);
+                else
+                    spillProbe(r, probe.getTuple(i));
+                continue;
+            } else {
+                matches = null;
+                probe = probeSide.nextBatch();
+                probePos = 0;
+                if (probe != null)
+                    continue;
+            }
+            if (!nextPhase())
+                break;
+        }
+        return out.numRows() > 0 ? out : null;
     }
 
     @Override
@@ -10,6 +10,12 @@ public class HeapDBFileIterator extends AbstractDbFileIterator {
 	BufferPool bp = Database.getBufferPool();
 	private HeapPage curhp;
 	private Iterator<Tuple> curit;
+	// where nextBatch goes on from on the current page
+	private int batchSlot;
+	// the page being read is pinned, so it stays put until we move on
+	private HeapPageId pinned;
+	// reads the next few pages while this one is scanned
+	private ReadAhead readAhead;
 	
 	public HeapDBFileIterator (HeapFile hf, TransactionId tid) {
 		this.hf = hf;
@@ -18,10 +24,34 @@ public class HeapDBFileIterator extends AbstractDbFileIterator {
 
 	@Override
 	public void open() throws DbException, TransactionAbortedException {
+		// a scan reads every page, so one table lock beats a lock per page
+		bp.lockTable(this.tid, hf.getId(), Permissions.READ_ONLY);
+		readAhead = new ReadAhead(bp, this.tid, hf.getId());
 		pInd = 0;
-		HeapPageId hpid = new HeapPageId(hf.getId(),pInd);
-		curhp = (HeapPage)bp.getPage(this.tid, hpid, Permissions.READ_ONLY); 
+		curhp = pinPage(new HeapPageId(hf.getId(),pInd), hf.numPages());
 		curit = curhp.iterator();
+		batchSlot = 0;
+	}
+
+	/**
+	 * Pins the page, and unpins the one read before it. numPages is the
+	 * size of the file, as the caller just found it.
+	 */
+	private HeapPage pinPage(HeapPageId hpid, int numPages)
+			throws DbException, TransactionAbortedException {
+		unpin();
+		readAhead.reached(hpid.getPageNumber());
+		HeapPage p = (HeapPage)bp.pinPage(this.tid, hpid, Permissions.READ_ONLY, true);
+		readAhead.advance(hpid.getPageNumber(), numPages);
+		pinned = hpid;
+		return p;
+	}
+
+	private void unpin() {
+		if (pinned != null) {
+			bp.unpinPage(this.tid, pinned);
+			pinned = null;
+		}
 	}
 
 	@Override
@@ -33,8 +63,34 @@ public class HeapDBFileIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
         this.curit = null;
+        unpin();
     }
 
+	/**
+	 * Adds the next tuples of the file to b, decoded straight from the
+	 * pages into its vectors, until b is full or the file is done. Used in
+	 * place of next, not as well as it.
+	 *
+	 * @return false if there were no more tuples to add
+	 */
+	public boolean nextBatch(TupleBatch b) throws DbException, TransactionAbortedException {
+		if (curit == null)
+			throw new IllegalStateException("Iterator has not been opened.");
+		int before = b.numRows();
+		while (!b.isFull()) {
+			batchSlot = curhp.readBatch(batchSlot, b);
+			if (batchSlot < curhp.numSlots)
+				break;
+			int numPages = hf.numPages();
+			if (pInd + 1 >= numPages)
+				break;
+			pInd++;
+			curhp = pinPage(new HeapPageId(hf.getId(), pInd), numPages);
+			batchSlot = 0;
+		}
+		return b.numRows() > before;
+	}
+
 	@Override
 	protected Tuple readNext() throws DbException, TransactionAbortedException {
 		if (curit == null) {
@@ -43,11 +99,11 @@ public class HeapDBFileIterator extends AbstractDbFileIterator {
 		if (curit.hasNext()) {
 			return curit.next();
 		}
-		if (pInd + 1 < hf.numPages()) {
+		int numPages = hf.numPages();
+		if (pInd + 1 < numPages) {
 			try {
 				pInd++;
-				HeapPageId hpid = new HeapPageId(hf.getId(), pInd);
-				curhp = (HeapPage)bp.getPage(this.tid, hpid, Permissions.READ_ONLY); 
+				curhp = pinPage(new HeapPageId(hf.getId(), pInd), numPages);
 				this.curit = curhp.iterator();
 				return readNext();
 			} catch (Exception e){
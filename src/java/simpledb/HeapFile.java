@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -9,15 +12,56 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Pages are read and written with positional I/O on a FileChannel that
+ * stays open for the life of the HeapFile (until {@link #close}); runs of
+ * consecutive pages written together by {@link #writePages} go out in one
+ * gathering write. Nothing is synced to disk until {@link #force} is called. In mmap mode (see
+ * {@link #MMAP_PROPERTY}) they are copied out of a read-only mapping of the
+ * file instead, which is remapped once the file has grown to twice the size
+ * mapped, so that a run of appends costs few remaps; pages past the
+ * mapping, including those past the first 2 GB, which one mapping can't
+ * cover, are read from the channel.
+ * Either way the page is copied into memory the page owns, since updates
+ * must go through the BufferPool and the log rather than straight into the
+ * file.
+ * <p>
+ * Which pages are full is kept in a {@link FreeSpaceMap}, so that an insert
+ * goes straight to a page with room. The map is brought up to date whenever
+ * a page is inserted into, deleted from or written, and saved with
+ * {@link #saveFreeSpaceMap} and {@link #close}; not on every {@link #force},
+ * which runs on every commit, since it is only a hint.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** System property that, when "true", makes HeapFiles created without
+    saying otherwise read pages through a memory mapping of the file,
+    e.g. -Dsimpledb.heapfile.mmap=true */
+    public static final String MMAP_PROPERTY = "simpledb.heapfile.mmap";
+
 	private File f;
 	private TupleDesc td;
 	private int id;
+	private final boolean mmap;
+
+	// opened on first use and kept open; guarded by this
+	private FileChannel channel;
+	// in mmap mode, a mapping of the start of the file, or null before the
+	// first read; replaced by a longer one when the file has doubled
+	private volatile MappedByteBuffer mapping;
+	// how many times the file has been mapped
+	private volatile int remaps;
+	// loaded on first use; guarded by this
+	private FreeSpaceMap freeSpace;
+	// a direct buffer pages are copied into to be written, allocated on the
+	// first write; guarded by this
+	private ByteBuffer staging;
+
+    /** The most pages copied into the staging buffer for one write. */
+    static final int STAGING_PAGES = 32;
 	
     /**
      * Constructs a heap file backed by the specified file.
@@ -27,9 +71,23 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, Boolean.getBoolean(MMAP_PROPERTY));
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, reading pages
+     * through a memory mapping of it if mmap is true.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mmap true to read pages through a memory mapping of the file
+     */
+    public HeapFile(File f, TupleDesc td, boolean mmap) {
         this.f = f;
         this.td = td;
         this.id = f.getAbsoluteFile().hashCode();
+        this.mmap = mmap;
     }
 
     /**
@@ -65,33 +123,214 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
+    	return readPage((HeapPageId) pid, ByteBuffer.allocate(BufferPool.getPageSize()));
+    }
+
+    /**
+     * Reads the specified page into frame, and returns a HeapPage over those
+     * bytes; see {@link HeapPage#HeapPage(HeapPageId, ByteBuffer)}. Used by
+     * the BufferPool to read pages straight into its off-heap frames.
+     *
+     * @param pid the page to read
+     * @param frame BufferPool.getPageSize() bytes starting at index 0
+     * @return the page, or null if it could not be read
+     */
+    public HeapPage readPage(HeapPageId pid, ByteBuffer frame) {
     	try {
-    		RandomAccessFile rf = new RandomAccessFile(f, "r");
-    		int offset = (pid.getPageNumber())*BufferPool.getPageSize();
-    		rf.seek(offset);
-    		byte[] data = new byte[BufferPool.getPageSize()];
-    		rf.read(data);
-    		rf.close();
-    		HeapPage hp = new HeapPage((HeapPageId) pid, data);
-    		return (Page) hp;
+    		int pageSize = BufferPool.getPageSize();
+    		long offset = (long) pid.getPageNumber() * pageSize;
+    		ByteBuffer b = frame.duplicate();
+    		b.clear();
+    		MappedByteBuffer m = mmap ? mapping(offset + pageSize) : null;
+    		if (m != null) {
+    			ByteBuffer src = m.duplicate();
+    			src.limit((int) offset + pageSize);
+    			src.position((int) offset);
+    			b.put(src);
+    		} else {
+    			FileChannel ch = channel();
+    			while (b.hasRemaining()) {
+    				int n = ch.read(b, offset + b.position());
+    				if (n < 0)
+    					break;
+    			}
+    			// past the end of the file, the page reads as empty
+    			while (b.hasRemaining())
+    				b.put((byte) 0);
+    		}
+    		return new HeapPage(pid, frame);
     	} catch (IOException e){
     		return null;
     	}
     }
 
+    /** @return the channel pages are read and written through, opening it if need be */
+    private synchronized FileChannel channel() throws IOException {
+    	// a thread interrupted in the middle of I/O closes the channel for
+    	// everyone, so open it again if that happened
+    	if (channel == null || !channel.isOpen())
+    		channel = new RandomAccessFile(f, "rw").getChannel();
+    	return channel;
+    }
+
+    /**
+     * @return a mapping of the file that covers its first end bytes, or
+     *   null if the current one is too short and the file hasn't grown to
+     *   twice its size (or the most one mapping can hold) since
+     */
+    private MappedByteBuffer mapping(long end) throws IOException {
+    	MappedByteBuffer m = mapping;
+    	if (m == null || m.capacity() < end) {
+    		long size = mappableSize();
+    		if (m == null || (size > m.capacity()
+    				&& size >= Math.min(2L * m.capacity(), maxMapping())))
+    			remap();
+    		m = mapping;
+    	}
+    	return m.capacity() < end ? null : m;
+    }
+
+    /** @return the most one mapping can hold, in whole pages */
+    private static long maxMapping() {
+    	int pageSize = BufferPool.getPageSize();
+    	return (long) (Integer.MAX_VALUE / pageSize) * pageSize;
+    }
+
+    /** @return how much of the file one mapping can cover now */
+    private long mappableSize() throws IOException {
+    	return Math.min(channel().size(), maxMapping());
+    }
+
+    /**
+     * Maps the file as it is now, so that pages added since the last
+     * mapping can be read through it rather than the channel. Reads remap
+     * on their own once the file has doubled, so this is only needed to
+     * map it sooner. Does nothing unless the file is in mmap mode.
+     */
+    public synchronized void remap() throws IOException {
+    	if (!mmap)
+    		return;
+    	long size = mappableSize();
+    	MappedByteBuffer m = mapping;
+    	if (m == null || m.capacity() < size) {
+    		mapping = channel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+    		remaps++;
+    	}
+    }
+
+    /** @return how many times the file has been mapped */
+    int remaps() {
+    	return remaps;
+    }
+
+    /**
+     * @return the map of which pages of this file are full
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() {
+    	if (freeSpace == null)
+    		freeSpace = new FreeSpaceMap(f, numPages());
+    	return freeSpace;
+    }
+
+    /**
+     * Records in the free-space map whether the page, as it now is, has
+     * room for another tuple. Called for pages that change other than
+     * through this file, e.g. when an abort puts back a page's before image.
+     */
+    public void updateFreeSpace(HeapPage page) {
+    	getFreeSpaceMap().setFull(page.getId().getPageNumber(), page.getNumEmptySlots() == 0);
+    }
+
+    /**
+     * Saves the free-space map, if it was loaded and has changed since it
+     * was last saved.
+     *
+     * @throws IOException if the map can't be written
+     */
+    public synchronized void saveFreeSpaceMap() throws IOException {
+    	if (freeSpace != null)
+    		freeSpace.save(numPages());
+    }
+
+    /**
+     * Saves the free-space map, then closes the channel and drops the
+     * mapping the file is read through. They are opened again if the file
+     * is read after this.
+     */
+    public synchronized void close() throws IOException {
+    	saveFreeSpaceMap();
+    	mapping = null;
+    	if (channel != null) {
+    		channel.close();
+    		channel = null;
+    	}
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-    	try {
-	    	int offset = (page.getId().getPageNumber())*BufferPool.getPageSize();
-	    	RandomAccessFile wf = new RandomAccessFile(f, "rw");
-	    	wf.seek(offset);
-	    	wf.write(page.getPageData());
-			wf.close();
-    	} catch (IOException e) {
-    		throw e;
+    	writeRun(Collections.singletonList(page), 0, 1);
+    	updateFreeSpace((HeapPage) page);
+    }
+
+    /**
+     * Writes a set of pages of this file, each run of consecutive pages
+     * with as few writes as the staging buffer allows.
+     *
+     * @param pages the pages to write, in any order
+     * @throws IOException if a write fails
+     */
+    public void writePages(List<Page> pages) throws IOException {
+    	ArrayList<Page> sorted = new ArrayList<Page>(pages);
+    	Collections.sort(sorted, new Comparator<Page>() {
+    		public int compare(Page a, Page b) {
+    			return Integer.compare(a.getId().getPageNumber(), b.getId().getPageNumber());
+    		}
+    	});
+    	int start = 0;
+    	while (start < sorted.size()) {
+    		int end = start + 1;
+    		while (end < sorted.size() && sorted.get(end).getId().getPageNumber()
+    				== sorted.get(end - 1).getId().getPageNumber() + 1)
+    			end++;
+    		writeRun(sorted, start, end);
+    		start = end;
+    	}
+    	for (Page p : sorted)
+    		updateFreeSpace((HeapPage) p);
+    }
+
+    /**
+     * Writes pages from to to of pages, which are consecutive in the file.
+     * They are copied straight from the pages into the staging buffer, up
+     * to STAGING_PAGES at a time, and written from there, so no array is
+     * allocated for them and the channel need not copy them again.
+     */
+    private synchronized void writeRun(List<Page> pages, int from, int to) throws IOException {
+    	int pageSize = BufferPool.getPageSize();
+    	if (staging == null || staging.capacity() < STAGING_PAGES * pageSize)
+    		staging = ByteBuffer.allocateDirect(STAGING_PAGES * pageSize);
+    	FileChannel ch = channel();
+    	for (int i = from; i < to; ) {
+    		long offset = (long) pages.get(i).getId().getPageNumber() * pageSize;
+    		staging.clear();
+    		for (int n = 0; n < STAGING_PAGES && i < to; n++, i++)
+    			pages.get(i).copyPageData(staging);
+    		staging.flip();
+    		while (staging.hasRemaining())
+    			ch.write(staging, offset + staging.position());
     	}
     }
 
+    /**
+     * Forces the pages written so far out to the disk. The free-space map
+     * is left for {@link #saveFreeSpaceMap}.
+     *
+     * @throws IOException if the sync fails
+     */
+    public void force() throws IOException {
+    	channel().force(false);
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
@@ -102,34 +341,51 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-    	for(int i = 0; i < this.numPages(); i++) {
+    	BufferPool bp = Database.getBufferPool();
+    	FreeSpaceMap fsm = getFreeSpaceMap();
+    	// only pages the map doesn't know to be full are locked and read
+    	for(int i = fsm.nextWithRoom(0); ; i = fsm.nextWithRoom(i + 1)) {
 	    	HeapPageId pid = new HeapPageId(this.getId(),i);
-			HeapPage p = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-			if (p.getNumEmptySlots() != 0) {
-				p.insertTuple(t);
-				ArrayList<Page> ps =  new ArrayList<Page>();
-				ps.add(p);
-				return ps;
+	    	if (i >= this.numPages()) {
+	    		// every page is full: extend the file with an empty page, and
+	    		// fill it through the buffer pool like any other, so that the
+	    		// update is logged before it reaches the disk
+	    		writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+	    	}
+	    	// pinned until it is dirty, so it can't be evicted half updated
+			HeapPage p = (HeapPage)bp.pinPage(tid, pid, Permissions.READ_WRITE, false);
+			try {
+				if (p.getNumEmptySlots() != 0) {
+					p.insertTuple(t);
+					p.markDirty(true, tid);
+					updateFreeSpace(p);
+					ArrayList<Page> ps =  new ArrayList<Page>();
+					ps.add(p);
+					return ps;
+				}
+				fsm.setFull(i, true);
+			} finally {
+				bp.unpinPage(tid, pid);
 			}
     	}
-    	HeapPageId pid = new HeapPageId(this.getId(),this.numPages());
-    	HeapPage p = new HeapPage(pid, HeapPage.createEmptyPageData());
-    	p.insertTuple(t);	
-		ArrayList<Page> ps =  new ArrayList<Page>();
-		ps.add(p);
-		writePage(p);
-		return ps;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
     	PageId pid = t.getRecordId().getPageId();
-    	HeapPage p = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-    	if (p == null) {
-    		throw new DbException("Could not open Page " + pid);
+    	BufferPool bp = Database.getBufferPool();
+    	HeapPage p = (HeapPage)bp.pinPage(tid, pid, Permissions.READ_WRITE, false);
+    	try {
+    		if (p == null) {
+    			throw new DbException("Could not open Page " + pid);
+    		}
+    		p.deleteTuple(t);
+    		p.markDirty(true, tid);
+    		updateFreeSpace(p);
+    	} finally {
+    		bp.unpinPage(tid, pid);
     	}
-    	p.deleteTuple(t);
     	ArrayList<Page> ps =  new ArrayList<Page>();
 		ps.add(p);
 		return ps;
@@ -1,7 +1,17 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -66,17 +76,38 @@ public class HeapFileEncoder {
       convert(inFile,outFile,npagebytes,numFields,typeAr,',');
   }
 
+  /** Input lines are cut into chunks of this many pages' worth of tuples. */
+  public static final int PAGES_PER_CHUNK = 256;
+  /** How much of the input file is read at a time. */
+  static final int READ_BYTES = 1 << 20;
+  /** How often, in milliseconds, progress is reported. */
+  static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              Runtime.getRuntime().availableProcessors(), null);
+  }
+
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
-    * int,...,int\n<br>
-    * int,...,int\n<br>
+    * Assume format of the input file is:<br>
+    * field,...,field\n<br>
+    * field,...,field\n<br>
     * ...<br>
-    * where each row represents a tuple.<br>
+    * where each row represents a tuple, and each field is an int or a
+    * string as typeAr says. Empty lines are skipped.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
+    * <p>
+    * The conversion is a pipeline. This thread reads the input in large
+    * blocks and cuts it into chunks of whole lines, PAGES_PER_CHUNK pages'
+    * worth of tuples each; a pool of threads encodes the chunks into pages;
+    * and a writer thread writes the pages of each chunk, in input order,
+    * with one large write. Only a few chunks per encoding thread are in
+    * flight at a time, so memory use doesn't grow with the input.
     *
     * @see HeapPage
     * @see HeapFile
@@ -84,143 +115,350 @@ public class HeapFileEncoder {
     * @param outFile The output file to write data to
     * @param npagebytes The number of bytes per page in the output file
     * @param numFields the number of fields in each input line/output tuple
+    * @param typeAr the type of each field
+    * @param fieldSeparator the character between fields
+    * @param threads the number of threads encoding pages
+    * @param progress where to report progress and throughput, about once
+    *   a second and once at the end, or null for no report
     * @throws IOException if the input/output file can't be opened or a
     *   malformed input line is encountered
     */
   public static void convert(File inFile, File outFile, int npagebytes,
-                 int numFields, Type[] typeAr, char fieldSeparator)
+                 int numFields, Type[] typeAr, char fieldSeparator,
+                 int threads, PrintStream progress)
       throws IOException {
+    final PageEncoder encoder = new PageEncoder(npagebytes, numFields, typeAr,
+            (byte) fieldSeparator);
+    ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+        Thread t = new Thread(r, "HeapFileEncoder");
+        t.setDaemon(true);
+        return t;
+    });
+    final BlockingQueue<Future<Chunk>> encoded =
+            new ArrayBlockingQueue<Future<Chunk>>(2 * threads);
+    final Future<Chunk> end = new FutureTask<Chunk>(() -> null);
+    final long inputBytes = inFile.length();
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
+    try (FileChannel in = new FileInputStream(inFile).getChannel();
+         FileChannel out = new FileOutputStream(outFile).getChannel()) {
+      PageWriter writer = new PageWriter(out, encoded, end, encoder,
+              inputBytes, progress);
+      writer.start();
+      boolean finished = false;
+      try {
+        ChunkReader reader = new ChunkReader(in, encoder.nrecords * PAGES_PER_CHUNK);
+        byte[] chunk;
+        while (writer.error == null && (chunk = reader.next()) != null) {
+          final byte[] lines = chunk;
+          encoded.put(pool.submit(() -> new Chunk(encoder.encode(lines), lines.length)));
+        }
+        encoded.put(end);
+        writer.join();
+        finished = true;
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("conversion interrupted");
+      } finally {
+        if (!finished)
+          writer.interrupt();
       }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
+      if (writer.error != null)
+        throw writer.error;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /** The pages encoded from a chunk of input. */
+  private static class Chunk {
+    final ByteBuffer pages;
+    final int inputBytes;
+
+    Chunk(ByteBuffer pages, int inputBytes) {
+      this.pages = pages;
+      this.inputBytes = inputBytes;
+    }
+  }
+
+  /**
+   * Cuts an input file into chunks of whole lines, each with the same
+   * number of non-empty lines, but for the last.
+   */
+  private static class ChunkReader {
+    private final FileChannel in;
+    private final int linesPerChunk;
+    private final ByteBuffer buf = ByteBuffer.allocate(READ_BYTES);
+    private boolean eof;
+
+    ChunkReader(FileChannel in, int linesPerChunk) {
+      this.in = in;
+      this.linesPerChunk = linesPerChunk;
+      buf.flip();
+    }
+
+    /** @return the next chunk, or null at the end of the input */
+    byte[] next() throws IOException {
+      ByteArrayOutputStream chunk = new ByteArrayOutputStream(READ_BYTES);
+      int lines = 0;
+      boolean blank = true; // nothing but '\r' on this line so far
+      while (lines < linesPerChunk) {
+        if (!buf.hasRemaining()) {
+          if (eof || !fill())
+            break;
         }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
+        byte[] a = buf.array();
+        int start = buf.position();
+        int i = start;
+        int limit = buf.limit();
+        for (; i < limit && lines < linesPerChunk; i++) {
+          byte b = a[i];
+          if (b == '\n') {
+            if (!blank)
+              lines++;
+            blank = true;
+          } else if (b != '\r') {
+            blank = false;
+          }
+        }
+        chunk.write(a, start, i - start);
+        buf.position(i);
+      }
+      return chunk.size() == 0 ? null : chunk.toByteArray();
+    }
+
+    private boolean fill() throws IOException {
+      buf.clear();
+      int n = 0;
+      while (n == 0)
+        n = in.read(buf);
+      buf.flip();
+      if (n < 0) {
+        eof = true;
+        return false;
+      }
+      return true;
+    }
+  }
+
+  /** Encodes chunks of lines into pages, in the format HeapPage reads. */
+  private static class PageEncoder {
+    final int npagebytes;
+    final Type[] typeAr;
+    final byte separator;
+    final int nrecbytes;
+    final int nrecords;
+    final int nheaderbytes;
+
+    PageEncoder(int npagebytes, int numFields, Type[] typeAr, byte separator) {
+      this.npagebytes = npagebytes;
+      this.typeAr = Arrays.copyOf(typeAr, numFields);
+      this.separator = separator;
+      int recbytes = 0;
+      for (int i = 0; i < numFields; i++)
+        recbytes += typeAr[i].getLen();
+      this.nrecbytes = recbytes;
+      this.nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);  //floor comes for free
+      // per record, we need one bit; there are nrecords per page, so we
+      // need nrecords bits
+      this.nheaderbytes = (nrecords + 7) / 8;
+    }
+
+    /**
+     * @return the pages holding the tuples of the lines, all full but the
+     *   last
+     */
+    ByteBuffer encode(byte[] lines) throws IOException {
+      // count the records first, to size the pages
+      int nlines = 0;
+      boolean blank = true;
+      for (byte b : lines) {
+        if (b == '\n') {
+          if (!blank)
+            nlines++;
+          blank = true;
+        } else if (b != '\r') {
+          blank = false;
         }
+      }
+      if (!blank)
+        nlines++; // the last line of the input need not end with '\n'
+      int npages = (nlines + nrecords - 1) / nrecords;
+      ByteBuffer pages = ByteBuffer.allocate(npages * npagebytes);
+
+      int record = 0;
+      int start = 0;
+      for (int i = 0; i <= lines.length; i++) {
+        if (i < lines.length && lines[i] != '\n')
+          continue;
+        int page = record / nrecords;
+        int slot = record % nrecords;
+        int base = page * npagebytes;
+        if (encodeLine(lines, start, i, typeAr, separator, pages,
+                base + nheaderbytes + slot * nrecbytes)) {
+          pages.put(base + slot / 8, (byte) (pages.get(base + slot / 8) | (1 << (slot % 8))));
+          record++;
+        }
+        start = i + 1;
+      }
+      return pages;
+    }
+  }
+
+  /**
+   * Encodes a line of input text, a[start] to a[end - 1] without its '\n',
+   * into a record of the fields typeAr lists, in the on-disk format, at
+   * out[off]; the bytes there must be zero. The text between separators is
+   * a field, with the spaces around it trimmed; an int field that isn't a
+   * number is reported as a BAD LINE and taken as 0. HeapFileEncoder and
+   * BulkLoader both read text with this, so they accept the same input.
+   *
+   * @return false if the line is blank (nothing but '\r'), and was skipped
+   * @throws IOException if the line has more or fewer fields than typeAr
+   */
+  static boolean encodeLine(byte[] a, int start, int end, Type[] typeAr,
+                            byte separator, ByteBuffer out, int off) throws IOException {
+    while (end > start && a[end - 1] == '\r')
+      end--;
+    if (end == start)
+      return false;
+    int field = 0;
+    int fstart = start;
+    for (int i = start; i <= end; i++) {
+      if (i < end && a[i] != separator)
+        continue;
+      if (field >= typeAr.length)
+        throw new IOException("more than " + typeAr.length + " fields in line: "
+            + new String(a, start, end - start, "ISO-8859-1"));
+      int fs = fstart, fe = i;
+      while (fs < fe && a[fs] == ' ') fs++;
+      while (fe > fs && a[fe - 1] == ' ') fe--;
+      if (typeAr[field] == Type.INT_TYPE) {
+        out.putInt(off, parseInt(a, fs, fe));
+      } else {
+        int len = Math.min(fe - fs, Type.STRING_LEN);
+        out.putInt(off, len);
+        for (int j = 0; j < len; j++)
+          out.put(off + 4 + j, a[fs + j]);
+        // the rest of the field is already zero
+      }
+      off += typeAr[field].getLen();
+      field++;
+      fstart = i + 1;
+    }
+    if (field < typeAr.length)
+      throw new IOException("fewer than " + typeAr.length + " fields in line: "
+          + new String(a, start, end - start, "ISO-8859-1"));
+    return true;
+  }
+
+  private static int parseInt(byte[] a, int start, int end) throws IOException {
+    int i = start;
+    boolean negative = i < end && a[i] == '-';
+    if (negative || (i < end && a[i] == '+'))
+      i++;
+    if (i == end || end - i > 10)
+      return parseIntSlowly(a, start, end);
+    long v = 0;
+    for (; i < end; i++) {
+      int d = a[i] - '0';
+      if (d < 0 || d > 9)
+        return parseIntSlowly(a, start, end);
+      v = v * 10 + d;
+    }
+    v = negative ? -v : v;
+    if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+      return parseIntSlowly(a, start, end);
+    return (int) v;
+  }
+
+  private static int parseIntSlowly(byte[] a, int start, int end) throws IOException {
+    String s = new String(a, start, end - start, "ISO-8859-1");
+    try {
+      return Integer.parseInt(s);
+    } catch (NumberFormatException e) {
+      System.out.println ("BAD LINE : " + s);
+      return 0;
+    }
+  }
+
+  /**
+   * Writes the pages of each chunk, in the order the chunks were read, and
+   * reports progress.
+   */
+  private static class PageWriter extends Thread {
+    private final FileChannel out;
+    private final BlockingQueue<Future<Chunk>> encoded;
+    private final Future<Chunk> end;
+    private final PageEncoder encoder;
+    private final long inputBytes;
+    private final PrintStream progress;
+    volatile IOException error;
+
+    PageWriter(FileChannel out, BlockingQueue<Future<Chunk>> encoded,
+               Future<Chunk> end, PageEncoder encoder, long inputBytes,
+               PrintStream progress) {
+      super("HeapFileEncoder writer");
+      setDaemon(true);
+      this.out = out;
+      this.encoded = encoded;
+      this.end = end;
+      this.encoder = encoder;
+      this.inputBytes = inputBytes;
+      this.progress = progress;
+    }
+
+    public void run() {
+      long start = System.currentTimeMillis();
+      long lastReport = start;
+      long pages = 0;
+      long read = 0;
+      try {
+        Future<Chunk> f;
+        while ((f = encoded.take()) != end) {
+          if (error != null) {
+            f.cancel(true);
+            continue; // drain, so the reader isn't left blocked
+          }
+          try {
+            Chunk c = f.get();
+            while (c.pages.hasRemaining())
+              out.write(c.pages);
+            pages += c.pages.capacity() / encoder.npagebytes;
+            read += c.inputBytes;
+          } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            error = cause instanceof IOException ? (IOException) cause
+                    : new IOException(cause);
+          } catch (IOException e) {
+            error = e;
+          }
+          long now = System.currentTimeMillis();
+          if (progress != null && now - lastReport >= PROGRESS_INTERVAL_MILLIS) {
+            report(pages, read, now - start);
+            lastReport = now;
+          }
+        }
+        if (error == null && pages == 0) {
+          // an empty table still gets an empty page
+          ByteBuffer b = ByteBuffer.allocate(encoder.npagebytes);
+          while (b.hasRemaining())
+            out.write(b);
+          pages++;
+        }
+      } catch (InterruptedException e) {
+        error = new InterruptedIOException("conversion interrupted");
+      } catch (IOException e) {
+        error = e;
+      }
+      if (progress != null && error == null)
+        report(pages, read, System.currentTimeMillis() - start);
+    }
+
+    private void report(long pages, long read, long millis) {
+      double seconds = Math.max(millis, 1) / 1000.0;
+      double mb = 1024.0 * 1024.0;
+      progress.printf("%.1f of %.1f MB converted (%d%%) in %.1f s, %.1f MB/s; %d pages written%n",
+              read / mb, inputBytes / mb, inputBytes == 0 ? 100 : read * 100 / inputBytes,
+              seconds, read / mb / seconds, pages);
     }
-    br.close();
-    os.close();
   }
 }
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -15,13 +17,22 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
+    final int headerSize;
     final int numSlots;
     private boolean dirty;
     private TransactionId dirtyTId;
 
-    byte[] oldData;
+    // the page image, in the on-disk format: the header bytes, then the
+    // slots. Either owned by this page, or a frame of the BufferPool's
+    // off-heap arena until the pool detaches the page from it.
+    private volatile ByteBuffer data;
+    // what the tuples read from the page decode their fields from; over
+    // data, until a slot is written while tuples may be reading it
+    private volatile PageImage image;
+
+    // the page as it was before the transaction dirtying it first changed
+    // it; null while it is unchanged since the last setBeforeImage
+    volatile byte[] oldData;
     
     private final Byte oldDataLock=new Byte((byte)0);
 
@@ -37,31 +48,31 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps its own copy of data, padded with zeroes if it is shorter
+     * than a page.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(Arrays.copyOf(data, BufferPool.getPageSize())));
+    }
+
+    /**
+     * Create a HeapPage over a page image that is already in memory, in the
+     * format described at {@link #HeapPage(HeapPageId, byte[])}. The page
+     * reads and updates the bytes of frame in place rather than copying
+     * them, so frame must hold BufferPool.getPageSize() bytes starting at
+     * index 0, and must not be used for anything else while the page is.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer frame) {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++) {
-            header[i] = dis.readByte();
-        }
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        this.headerSize = getHeaderSize();
+        this.data = frame;
+        this.image = new PageImage(frame);
 
         setBeforeImage();
     }
@@ -86,25 +97,38 @@ public class HeapPage implements Page {
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
-        try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
+        byte[] oldDataRef = null;
+        synchronized(oldDataLock)
+        {
+            oldDataRef = oldData;
         }
-        return null;
+        // the page has a copy of its own, as it may be changed in turn
+        byte[] before = (oldDataRef != null ? oldDataRef.clone() : getPageData());
+        return new HeapPage(pid, ByteBuffer.wrap(before));
     }
     
+    /**
+     * Makes the current contents of the page its before image. Nothing is
+     * copied until the page is next changed.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /**
+     * Saves a copy of the page as its before image, if it has none: called
+     * before every change, so the copy is made only by the first.
+     */
+    private void captureBeforeImage() {
+        if (oldData != null)
+            return;
+        synchronized(oldDataLock)
+        {
+            if (oldData == null)
+                oldData = getPageData();
         }
     }
 
@@ -116,37 +140,52 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the specified slot, which must be in use. Its
+     * fields are decoded from the page image as they are asked for.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private Tuple readTuple(int slotId) {
+        PageImage img = image;
+        img.shared = true;
+        Tuple t = new Tuple(td, img, headerSize + slotId * td.getSize());
+        t.setRecordId(new RecordId(pid, slotId));
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    /**
+     * Decodes the tuples in the used slots from slot on into new rows of b,
+     * until b is full.
+     *
+     * @return the slot to go on from, or numSlots if the page is done
+     */
+    int readBatch(int slot, TupleBatch b) {
+        if (slot >= numSlots)
+            return numSlots;
+        ByteBuffer d = data;
+        int n = td.numFields();
+        int size = td.getSize();
+        // the used slots are taken from the header a word at a time
+        int w = slot >>> 6;
+        long bits = headerWord(w) & (-1L << slot);
+        while (true) {
+            while (bits == 0) {
+                if (++w * 64 >= numSlots)
+                    return numSlots;
+                bits = headerWord(w);
+            }
+            slot = w * 64 + Long.numberOfTrailingZeros(bits);
+            if (b.isFull())
+                return slot;
+            bits &= bits - 1;
+            int row = b.addRow(pid, slot);
+            int offset = headerSize + slot * size;
+            for (int c = 0; c < n; c++) {
+                Type type = td.getFieldType(c);
+                if (type == Type.INT_TYPE)
+                    b.setInt(c, row, d.getInt(offset + td.getOffset(c)));
+                else
+                    b.setField(c, row, type.parse(d, offset + td.getOffset(c)));
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
-
-        return t;
     }
 
     /**
@@ -161,64 +200,34 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        byte[] out = new byte[BufferPool.getPageSize()];
+        copyPageData(ByteBuffer.wrap(out));
+        return out;
+    }
 
-                }
-                continue;
-            }
+    public void copyPageData(ByteBuffer dst) {
+        ByteBuffer b = data.duplicate();
+        b.clear();
+        dst.put(b);
+    }
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+    /**
+     * Moves the page image out of the buffer pool frame it was created over
+     * and onto the heap, so that the pool can reuse the frame for another
+     * page while this one is still referenced. Does nothing if the page
+     * already owns its bytes.
+     */
+    void detach() {
+        ByteBuffer b = data;
+        if (b.isDirect()) {
+            data = ByteBuffer.wrap(getPageData());
+            // tuples read from the page move with it, once none is decoding
+            // from the frame
+            PageImage img = image;
+            synchronized (img) {
+                img.data = data;
             }
         }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -253,6 +262,7 @@ public class HeapPage implements Page {
     	if(pid != this.pid) {
     		throw new DbException("Tuple is not on this page.");
     	}
+    	captureBeforeImage();
     	markSlotUsed(no, false);
     }
 
@@ -267,20 +277,51 @@ public class HeapPage implements Page {
     	if (t.getTupleDesc() == td) {
     		throw new DbException("The tuple descriptor does not match.");
     	}
-    	for (int i = 0; i < numSlots; i++) {
-    		if (!isSlotUsed(i)) {
-    			t.setRecordId(new RecordId(pid, i));
-    			tuples[i] = t;
-    			markSlotUsed(i, true);
-    			return;
-			}
-    		else {
-    		}
-		}
+    	int i = nextFreeSlot(0);
+    	if (i < numSlots) {
+    		captureBeforeImage();
+    		writeTuple(t, i);
+    		t.setRecordId(new RecordId(pid, i));
+    		markSlotUsed(i, true);
+    		return;
+    	}
     	throw new DbException("The page is full.");
         
     }
 
+    /**
+     * Adds the specified tuple to the page in the specified slot, which
+     * must be empty. Used by {@link BulkLoader}, which fills new pages slot
+     * by slot and has no need to search for a free one. No before image is
+     * kept: the loader's pages are new, and are emptied again on abort.
+     */
+    void insertTuple(Tuple t, int slot) throws DbException {
+    	writeTuple(t, slot);
+    	t.setRecordId(new RecordId(pid, slot));
+    	markSlotUsed(slot, true);
+    }
+
+    /**
+     * Encodes the tuple into the specified slot, each field straight into
+     * the page's bytes.
+     */
+    private void writeTuple(Tuple t, int slotId) {
+        PageImage img = image;
+        if (img.shared) {
+            // tuples read from the page may still decode from the slot's
+            // old bytes; leave them a copy that won't change
+            ByteBuffer copy = ByteBuffer.wrap(getPageData());
+            synchronized (img) {
+                img.data = copy;
+            }
+            image = new PageImage(data);
+        }
+        ByteBuffer b = data;
+        int slotOffset = headerSize + slotId * td.getSize();
+        for (int j = 0; j < td.numFields(); j++)
+            t.getField(j).serialize(b, slotOffset + td.getOffset(j));
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -305,19 +346,17 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-    	int numEmpty = 0;
-        for(int i = 0; i < numSlots; i++) {
-        	if (!isSlotUsed(i))
-        		numEmpty++;
-        }
-        return numEmpty;
+    	int used = 0;
+    	for (int w = 0; w * 64 < numSlots; w++)
+    		used += Long.bitCount(headerWord(w));
+    	return numSlots - used;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-    	int hbyte = header[i / 8];
+    	int hbyte = data.get(i / 8);
     	return ((hbyte >> i % 8) & 1) == 1;
     }
 
@@ -325,8 +364,10 @@ public class HeapPage implements Page {
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
+    	ByteBuffer b = data;
     	int headerIdx = i / 8;
-    	header[headerIdx] = (value ? (byte) (header[headerIdx] | (1 << i % 8)) : (byte) (header[headerIdx] & ~(1 << i % 8)));
+    	int hbyte = b.get(headerIdx);
+    	b.put(headerIdx, (value ? (byte) (hbyte | (1 << i % 8)) : (byte) (hbyte & ~(1 << i % 8))));
     }
 
     /**
@@ -334,14 +375,77 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-    	ArrayList<Tuple> temp = new ArrayList<Tuple>();
-    	for (int i = 0; i < tuples.length; i++) {
-    		if (isSlotUsed(i)) {
-    			temp.add(tuples[i]);
+    	return new Iterator<Tuple>() {
+    		// tuples are decoded one at a time, as they are returned
+    		private int next = nextUsedSlot(0);
+
+    		public boolean hasNext() {
+    			return next < numSlots;
+    		}
+
+    		public Tuple next() {
+    			if (!hasNext())
+    				throw new NoSuchElementException();
+    			Tuple t = readTuple(next);
+    			next = nextUsedSlot(next + 1);
+    			return t;
+    		}
+
+    		public void remove() {
+    			throw new UnsupportedOperationException();
     		}
+    	};
+    }
+
+    /**
+     * Reads the header a word at a time: bit j of word w is set if slot
+     * 64 * w + j is used. The header is little-endian bit order within its
+     * bytes, so a word is its eight bytes read little-endian; the bits past
+     * the last slot are cleared.
+     */
+    private long headerWord(int w) {
+    	ByteBuffer b = data;
+    	int at = w * 8;
+    	long bits;
+    	if (at + 8 <= headerSize) {
+    		bits = b.getLong(at);
+    		if (b.order() == ByteOrder.BIG_ENDIAN)
+    			bits = Long.reverseBytes(bits);
+    	} else {
+    		bits = 0;
+    		for (int i = headerSize - 1; i >= at; i--)
+    			bits = (bits << 8) | (b.get(i) & 0xff);
     	}
-        return temp.iterator();
+    	int past = numSlots - w * 64;
+    	return past < 64 ? bits & ((1L << past) - 1) : bits;
     }
 
-}
+    /** @return the first used slot at or after i, or numSlots if there is none */
+    private int nextUsedSlot(int i) {
+    	if (i >= numSlots)
+    		return numSlots;
+    	int w = i >>> 6;
+    	long bits = headerWord(w) & (-1L << i);
+    	while (bits == 0) {
+    		if (++w * 64 >= numSlots)
+    			return numSlots;
+    		bits = headerWord(w);
+    	}
+    	return w * 64 + Long.numberOfTrailingZeros(bits);
+    }
 
+    /** @return the first free slot at or after i, or numSlots if there is none */
+    private int nextFreeSlot(int i) {
+    	if (i >= numSlots)
+    		return numSlots;
+    	int w = i >>> 6;
+    	long bits = ~headerWord(w) & (-1L << i);
+    	while (bits == 0) {
+    		if (++w * 64 >= numSlots)
+    			return numSlots;
+    		bits = ~headerWord(w);
+    	}
+    	return Math.min(w * 64 + Long.numberOfTrailingZeros(bits), numSlots);
+    }
+
+}
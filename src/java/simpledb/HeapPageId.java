@@ -4,8 +4,8 @@ package simpledb;
 /** Unique identifier for HeapPage objects. */
 public class HeapPageId implements PageId {
 
-	private int tableId;
-	private int pgNo;
+	private final int tableId;
+	private final int pgNo;
 	
     /**
      * Constructor. Create a page id structure for a specific page of a
@@ -33,22 +33,14 @@ public class HeapPageId implements PageId {
     }
 
     /**
-     * @return a hash code for this page, represented by the concatenation of
-     *   the table number and the page number (needed if a PageId is used as a
-     *   key in a hash table in the BufferPool, for example.)
+     * @return a hash code for this page, combining the table number and the
+     *   page number (needed if a PageId is used as a key in a hash table in
+     *   the BufferPool, for example.) Consecutive pages of a table get
+     *   consecutive hash codes, so they never collide with each other.
      * @see BufferPool
      */
     public int hashCode() {
-    	String s = "" + tableId + pgNo;
-    	long d = Long.parseLong(s);
-    	while (d > (long) Integer.MAX_VALUE) {
-    		d -= Integer.MAX_VALUE;
-    	}
-    	while (d < (long) Integer.MIN_VALUE) {
-    		d += Integer.MAX_VALUE;
-    	}
-    	return (int) d;
-    	//return tableId + pgNo;
+    	return 31 * tableId + pgNo;
     }
 
     /**
@@ -63,10 +55,7 @@ public class HeapPageId implements PageId {
     		return false;
     	}
     	HeapPageId hp = (HeapPageId) o;
-    	if (pgNo != hp.pgNo || tableId != hp.tableId) {
-    		return false;
-    	}
-        return true;
+    	return pgNo == hp.pgNo && tableId == hp.tableId;
     }
 
     /**
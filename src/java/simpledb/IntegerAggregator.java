@@ -121,13 +121,42 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
     	Field groupBy;
-    	AggregatorHelper iah = null;
         if (!group) {
         	groupBy = null;
         } else {
         	groupBy = tup.getField(gbfield);
         }
-        int value = ((IntField) tup.getField(afield)).getValue();
+        merge(groupBy, ((IntField) tup.getField(afield)).getValue());
+    }
+
+    /**
+     * Merge every row of a batch into the aggregate. The aggregate values
+     * are read straight from their vector; without grouping, they are all
+     * added to one helper in a single loop.
+     */
+    public void mergeBatchIntoGroup(TupleBatch b) {
+        int n = b.numRows();
+        if (n == 0)
+            return;
+        int[] values = b.intColumn(afield);
+        int i = 0;
+        if (!group) {
+            AggregatorHelper iah = aggMap.get(null);
+            if (iah == null)
+                merge(null, values[b.row(i++)]);
+            iah = aggMap.get(null);
+            for (; i < n; i++)
+                iah.addValue(values[b.row(i)]);
+        } else {
+            for (; i < n; i++) {
+                int row = b.row(i);
+                merge(b.getField(gbfield, row), values[row]);
+            }
+        }
+    }
+
+    private void merge(Field groupBy, int value) {
+    	AggregatorHelper iah = null;
         if (!aggMap.containsKey(groupBy)) {
         	switch (op) {
 	        	case MIN:
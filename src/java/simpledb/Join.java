@@ -4,6 +4,15 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Join is a block nested loops join: it reads as many outer tuples as fit
+ * in the memory it may use, as much as the buffer pool holds, into a block,
+ * and scans the inner relation once per block rather than once per outer
+ * tuple. The block is held column by column in a {@link TupleBatch}, so for
+ * an int join field each inner tuple is compared against an int[] of the
+ * block's join values. The block starts small and grows as the outer
+ * tuples come, so a small outer relation doesn't cost a pool-sized block,
+ * and it is kept from one open to the next.
  */
 public class Join extends Operator {
 
@@ -12,7 +21,18 @@ public class Join extends Operator {
     private OpIterator child1;
     private OpIterator child2;
     private OpIterator[] children;
-    private Tuple currentLeftTuple;
+
+    private transient TupleDesc td;
+    // the block of outer tuples, and its join field's values if they are
+    // ints; and the most tuples it may grow to
+    private transient TupleBatch block;
+    private transient int[] keys;
+    private transient int maxBlock;
+    // the inner tuple being joined to the block, its join field, and the
+    // next row of the block to compare it with
+    private transient Tuple currentRightTuple;
+    private transient Field rightKey;
+    private transient int row;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -30,7 +50,15 @@ public class Join extends Operator {
         this.child1 = child1;
         this.child2 = child2;
         children = new OpIterator[]{child1, child2};
-        currentLeftTuple = null;
+    }
+
+    /**
+     * @return the number of outer tuples in a block: as many as would fill
+     *   the buffer pool's pages
+     */
+    public static int blockTuples(TupleDesc outer) {
+        return Math.max(1, Database.getBufferPool().getCapacity()
+                * BufferPool.getPageSize() / outer.getSize());
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -68,6 +96,14 @@ public class Join extends Operator {
             TransactionAbortedException {
         child1.open();
         child2.open();
+        td = getTupleDesc();
+        TupleDesc outer = child1.getTupleDesc();
+        maxBlock = blockTuples(outer);
+        if (block == null || !block.getTupleDesc().equals(outer) || block.capacity() > maxBlock) {
+            block = new TupleBatch(outer, Math.min(TupleBatch.DEFAULT_CAPACITY, maxBlock));
+            keys = block.intColumn(joinPred.getField1());
+        }
+        fillBlock();
         super.open();
     }
 
@@ -80,7 +116,66 @@ public class Join extends Operator {
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
-        currentLeftTuple = null;
+        fillBlock();
+    }
+
+    // Reads the next block of outer tuples, doubling the block while it
+    // fills up short of maxBlock; returns false if there are none.
+    private boolean fillBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (child1.hasNext()) {
+            if (block.isFull()) {
+                if (block.capacity() >= maxBlock)
+                    break;
+                block = block.grow((int) Math.min(2L * block.capacity(), maxBlock));
+                keys = block.intColumn(joinPred.getField1());
+            }
+            block.addTuple(child1.next());
+        }
+        currentRightTuple = null;
+        return block.numRows() > 0;
+    }
+
+    // Returns the first row of the block from row on that joins with the
+    // current inner tuple, or the number of rows if none does.
+    private int nextMatch(int row) {
+        int n = block.numRows();
+        Predicate.Op op = joinPred.getOperator();
+        if (keys == null) {
+            int f = joinPred.getField1();
+            while (row < n && !block.getField(f, row).compare(op, rightKey))
+                row++;
+            return row;
+        }
+        int v = ((IntField) rightKey).getValue();
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            while (row < n && keys[row] != v)
+                row++;
+            break;
+        case NOT_EQUALS:
+            while (row < n && keys[row] == v)
+                row++;
+            break;
+        case GREATER_THAN:
+            while (row < n && keys[row] <= v)
+                row++;
+            break;
+        case GREATER_THAN_OR_EQ:
+            while (row < n && keys[row] < v)
+                row++;
+            break;
+        case LESS_THAN:
+            while (row < n && keys[row] >= v)
+                row++;
+            break;
+        case LESS_THAN_OR_EQ:
+            while (row < n && keys[row] > v)
+                row++;
+            break;
+        }
+        return row;
     }
     
     // helper function for actually joining two tuples
@@ -115,28 +210,31 @@ public class Join extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    protected Tuple fetchNext() throws TransactionAbortedException, DbException {      
-        if (currentLeftTuple == null) {
-        	if (child1.hasNext()) {
-        		currentLeftTuple = child1.next();
-        	} else {
-        		return null;
-        	}
-        }
-        while (currentLeftTuple != null) {
-        	if (child2.hasNext()) {
-        		Tuple currentRightTuple = child2.next();
-        		if (joinPred.filter(currentLeftTuple, currentRightTuple)) {
-        			return joinTuples(currentLeftTuple, currentRightTuple);
-        		}
-        	} else {
-        		if (child1.hasNext()) {
-        			currentLeftTuple = child1.next();
-        		} else {
-        			currentLeftTuple = null;
-        		}
-        		child2.rewind();
-        	}
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (block.numRows() > 0) {
+            if (currentRightTuple != null) {
+                row = nextMatch(row);
+                if (row < block.numRows()) {
+                    Tuple joined = new Tuple(td);
+                    int n = block.getTupleDesc().numFields();
+                    for (int i = 0; i < n; i++)
+                        joined.setField(i, block.getField(i, row));
+                    for (int i = 0; i < currentRightTuple.getTupleDesc().numFields(); i++)
+                        joined.setField(n + i, currentRightTuple.getField(i));
+                    row++;
+                    return joined;
+                }
+            }
+            if (child2.hasNext()) {
+                currentRightTuple = child2.next();
+                rightKey = currentRightTuple.getField(joinPred.getField2());
+                row = 0;
+            } else {
+                // done with this block; on to the next, if any
+                if (!fillBlock())
+                    return null;
+                child2.rewind();
+            }
         }
         return null;
     }
@@ -71,6 +71,8 @@ public class JoinOptimizer {
         //For EC4: Checks the LogicalJoinNode to see what type of hash to use.
         if (lj.jt == LogicalJoinNode.JoinType.HASH)
         	j = new HashEquiJoin(p,plan1,plan2);
+        else if (lj.jt == LogicalJoinNode.JoinType.SORT_MERGE)
+        	j = new SortMergeJoin(p,plan1,plan2);
         else
         	j = new Join(p,plan1,plan2);
         return j;
@@ -104,15 +106,37 @@ public class JoinOptimizer {
      *         cost2
      */
     
-    // added in this function for extra credit 4. Note that it takes advantage 
-    // of caching in the bufferpool
+    // added in this function for extra credit 4. HashEquiJoin reads each
+    // side once, and writes out and reads back the part of both that doesn't
+    // fit in the memory it may use, as much as the buffer pool holds
     public double estimateHashJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
     	int tdsize = Database.getCatalog().getTupleDesc(
                 this.p.getTableId(j.t1Alias)).getSize();
     	
-    	int loads = tdsize*card1 / (BufferPool.DEFAULT_PAGES*BufferPool.getPageSize());
-        return cost1 + card1 * cost2 + loads * card2;
+    	double fits = (double) Database.getBufferPool().getCapacity() * BufferPool.getPageSize() / tdsize;
+    	double spilled = card1 <= fits ? 0 : 1 - fits / card1;
+        return cost1 + cost2 + card1 + card2 + 2 * spilled * (cost1 + cost2);
+    }
+
+    /**
+     * Estimate the cost of a join with a {@link SortMergeJoin}: one scan of
+     * each side, sorting each side that doesn't come in order of its join
+     * field already, and one comparison per tuple of each side to merge.
+     *
+     * @param sorted1
+     *            Whether the left-hand side comes sorted on its join field
+     * @param sorted2
+     *            Whether the right-hand side comes sorted on its join field
+     */
+    public double estimateSortMergeJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
+        double cost = cost1 + cost2 + card1 + card2;
+        if (!sorted1)
+            cost += card1 * (Math.log(card1 + 1) / Math.log(2));
+        if (!sorted2)
+            cost += card2 * (Math.log(card2 + 1) / Math.log(2));
+        return cost;
     }
     
    
@@ -124,11 +148,14 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return cost1 + card1 * cost2 + card1 * card2;
+            // Join is a block nested loops join: it scans the right-hand
+            // side once per block of left-hand tuples, and compares every
+            // pair of tuples.
+            Integer tableId = this.p.getTableId(j.t1Alias);
+            TupleDesc td = Database.getCatalog().getTupleDesc(tableId != null
+                    ? tableId : Database.getCatalog().getTableId(j.t1Alias));
+            double blocks = Math.ceil((double) card1 / Join.blockTuples(td));
+            return cost1 + Math.max(1, blocks) * cost2 + card1 * card2;
         }
     }
 
@@ -365,6 +392,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // whether a side is the output of a sort-merge join on its join field
+        boolean leftSorted = false, rightSorted = false;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -400,6 +429,7 @@ public class JoinOptimizer {
                 // subtree is
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
+                leftSorted = isSortedOn(prevBest, j.t1Alias, j.f1PureName);
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateScanCost();
@@ -416,6 +446,7 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
+                rightSorted = isSortedOn(prevBest, j.t2Alias, j.f2PureName);
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
@@ -442,7 +473,7 @@ public class JoinOptimizer {
         // It picks the join with the lowest cost.
         if  (isEquiJoin) {
         	double cost1h = estimateHashJoinCost(j, t1card, t2card, t1cost, t2cost);
-        	double cost2h = estimateHashJoinCost(j2, t1card, t2card, t1cost, t2cost);
+        	double cost2h = estimateHashJoinCost(j2, t2card, t1card, t2cost, t1cost);
         	double minHashCost = cost1h < cost2h ? cost1h : cost2h;
         	double minNLCost = cost1 < cost2 ? cost1 : cost2;
         	
@@ -452,6 +483,22 @@ public class JoinOptimizer {
         		cost2 = cost2h;
         	}
         }
+        
+        // A sort-merge join takes range joins as well, and is cheapest when
+        // a side comes sorted from an earlier sort-merge join.
+        if (SortMergeJoin.supports(j.p)) {
+        	double cost1s = estimateSortMergeJoinCost(j, t1card, t2card, t1cost, t2cost,
+        			leftSorted, rightSorted);
+        	double cost2s = estimateSortMergeJoinCost(j2, t2card, t1card, t2cost, t1cost,
+        			rightSorted, leftSorted);
+        	if (Math.min(cost1s, cost2s) < Math.min(cost1, cost2)) {
+        		j.jt = LogicalJoinNode.JoinType.SORT_MERGE;
+        		cost1 = cost1s;
+        		cost2 = cost2s;
+        	}
+        }
+        // the swapped join is run the same way
+        j2.jt = j.jt;
         // we wrote the above code so that this part could remain as is
         if (cost2 < cost1) {
         	boolean tmp;
@@ -488,6 +535,19 @@ public class JoinOptimizer {
         return false;
     }
 
+    /**
+     * Return true if the last join in joinlist is a sort-merge join whose
+     * output is in order of the specified field
+     */
+    private boolean isSortedOn(Vector<LogicalJoinNode> joinlist, String tableAlias, String field) {
+        LogicalJoinNode last = joinlist.lastElement();
+        if (last.jt != LogicalJoinNode.JoinType.SORT_MERGE)
+            return false;
+        return (last.t1Alias.equals(tableAlias) && last.f1PureName.equals(field))
+                || (last.p == Predicate.Op.EQUALS && tableAlias.equals(last.t2Alias)
+                        && field.equals(last.f2PureName));
+    }
+
     /**
      * Return true if field is a primary key of the specified table, false
      * otherwise
@@ -0,0 +1,29 @@
+package simpledb;
+
+/**
+ * Least-recently-used replacement. Frames are kept in a doubly linked list
+ * threaded through the frames themselves, ordered from least to most
+ * recently used, so a hit is an unlink plus an append. Plain LRU has no
+ * notion of scans, so the sequential hint is ignored.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+
+    // least recently used frame first
+    private final FrameList frames = new FrameList();
+
+    public void frameAdded(BufferFrame f, boolean sequential) {
+        frames.addLast(f);
+    }
+
+    public void frameAccessed(BufferFrame f, boolean sequential) {
+        frames.moveToLast(f);
+    }
+
+    public void frameRemoved(BufferFrame f) {
+        frames.remove(f);
+    }
+
+    public BufferFrame chooseVictim(boolean steal) {
+        return frames.firstEvictable(steal);
+    }
+}
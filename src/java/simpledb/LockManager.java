@@ -0,0 +1,628 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager implements multi-granularity locking of tables and pages for
+ * the BufferPool.
+ * <p>
+ * Before locking a page, a transaction takes an intention lock (IS or IX,
+ * see {@link LockMode}) on its table, so that a transaction can also lock a
+ * whole table with a single S or X lock. A transaction that has locked more
+ * than the escalation threshold of pages in one table has those page locks
+ * replaced by a single table lock, which keeps the lock table small for big
+ * scans and updates.
+ * <p>
+ * Every locked resource has an entry holding the current lock holders and a
+ * FIFO queue of waiting requests. A request that cannot be granted right
+ * away parks on its own condition and is signalled when a release makes it
+ * grantable. Requests are granted strictly in arrival order, so a stream of
+ * readers can't starve a writer; the only exception is a lock upgrade, which
+ * goes to the front of the queue since everyone behind it is waiting on the
+ * lock its transaction already holds anyway.
+ * <p>
+ * Deadlocks are detected as soon as they form: every time a request has to
+ * wait, the waits-for graph (a transaction waits for the conflicting holders
+ * of the resource it wants and for the requests queued ahead of it) is
+ * searched for a cycle through the requester. One transaction on the cycle,
+ * picked by the {@link VictimPolicy}, has its waits aborted immediately. As a
+ * last resort for anything the graph can't see, a request that has waited
+ * longer than the lock timeout is abandoned and its transaction aborted as
+ * well.
+ * <p>
+ * The table is split into stripes by resource, each guarded by its own
+ * latch, so requests for different pages rarely contend and an uncontended
+ * request touches nothing shared but its stripes. Only the deadlock search,
+ * which runs when a request has to wait anyway, latches every stripe.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** Default time a lock request may wait before its transaction aborts. */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    /** Number of stripes the lock table is split into; a power of two. */
+    public static final int NUM_STRIPES = 64;
+
+    /** Default number of page locks in one table a transaction may hold
+    before they are escalated to a table lock. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 128;
+
+    /** Picks the transaction aborted to break a deadlock. */
+    public enum VictimPolicy {
+        /** Abort the most recently started transaction. */
+        YOUNGEST,
+        /** Abort the transaction holding the fewest locks, youngest first. */
+        FEWEST_LOCKS,
+        /** Don't look for deadlocks; rely on the lock timeout alone. */
+        NONE
+    }
+
+    /** The lockable resource standing for a whole table. */
+    private static final class TableResource {
+        final int tableId;
+
+        TableResource(int tableId) {
+            this.tableId = tableId;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof TableResource && ((TableResource) o).tableId == tableId;
+        }
+
+        public int hashCode() {
+            return tableId;
+        }
+    }
+
+    /** A lock request waiting in the queue of a resource. */
+    private static class LockRequest {
+        final TransactionId tid;
+        final Object resource;
+        final LockMode mode;
+        final LockEntry entry;
+        final Condition ready;
+        boolean granted;
+        boolean cancelled;
+
+        LockRequest(TransactionId tid, Object resource, LockMode mode,
+                LockEntry entry, Condition ready) {
+            this.tid = tid;
+            this.resource = resource;
+            this.mode = mode;
+            this.entry = entry;
+            this.ready = ready;
+        }
+    }
+
+    /** Lock state of a single table or page. */
+    private static class LockEntry {
+        final HashMap<TransactionId, LockMode> holders =
+                new HashMap<TransactionId, LockMode>(4);
+        final LinkedList<LockRequest> waiters = new LinkedList<LockRequest>();
+
+        boolean isFree() {
+            return holders.isEmpty() && waiters.isEmpty();
+        }
+    }
+
+    /** One stripe of the lock table, and the latch that guards it. */
+    private static class Stripe {
+        final ReentrantLock latch = new ReentrantLock();
+        final HashMap<Object, LockEntry> table = new HashMap<Object, LockEntry>();
+    }
+
+    /**
+     * The resources a transaction holds a lock on, so that it can release
+     * them without looking through the whole table, how many pages of each
+     * table it has locked, and the mode it holds on each table it has
+     * locked, so that a page lock needn't latch the table's stripe to find
+     * its intention lock already there.
+     */
+    private static class TransactionLocks {
+        final Set<Object> resources = ConcurrentHashMap.newKeySet();
+        final ConcurrentHashMap<Integer, AtomicInteger> pagesPerTable =
+                new ConcurrentHashMap<Integer, AtomicInteger>();
+        final ConcurrentHashMap<Integer, LockMode> tableModes =
+                new ConcurrentHashMap<Integer, LockMode>();
+
+        void added(Object resource, LockMode mode) {
+            if (resource instanceof TableResource) {
+                resources.add(resource);
+                tableModes.put(((TableResource) resource).tableId, mode);
+            } else if (resources.add(resource) && resource instanceof PageId) {
+                int tableId = ((PageId) resource).getTableId();
+                pagesPerTable.computeIfAbsent(tableId, t -> new AtomicInteger())
+                        .incrementAndGet();
+            }
+        }
+
+        void removed(Object resource) {
+            if (resources.remove(resource) && resource instanceof PageId)
+                pagesPerTable.get(((PageId) resource).getTableId()).decrementAndGet();
+            else if (resource instanceof TableResource)
+                tableModes.remove(((TableResource) resource).tableId);
+        }
+
+        LockMode tableMode(int tableId) {
+            return tableModes.get(tableId);
+        }
+
+        int pagesLocked(int tableId) {
+            AtomicInteger n = pagesPerTable.get(tableId);
+            return n == null ? 0 : n.get();
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final ConcurrentHashMap<TransactionId, TransactionLocks> held =
+            new ConcurrentHashMap<TransactionId, TransactionLocks>();
+    // the requests each transaction has queued; the edges of the waits-for graph
+    private final ConcurrentHashMap<TransactionId, Set<LockRequest>> waiting =
+            new ConcurrentHashMap<TransactionId, Set<LockRequest>>();
+    private volatile long timeoutMillis;
+    private volatile VictimPolicy victimPolicy = VictimPolicy.YOUNGEST;
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
+    /** Creates a LockManager using {@link #DEFAULT_TIMEOUT_MILLIS}. */
+    public LockManager() {
+        this(DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param timeoutMillis how long a request may wait before its
+     *   transaction is aborted; see {@link #setTimeout}
+     */
+    public LockManager(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        stripes = new Stripe[NUM_STRIPES];
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Stripe();
+    }
+
+    private Stripe stripeFor(Object resource) {
+        // picked by the high bits of a scrambled hash code, not the low bits
+        // the stripe's HashMap indexes by (see BufferPool.shardFor)
+        int h = resource.hashCode() * 0x9e3779b9;
+        return stripes[(h >>> 16) & (stripes.length - 1)];
+    }
+
+    /**
+     * Sets how long a lock request may wait before its transaction is
+     * aborted. Each wait gets a random extra delay of up to the same amount
+     * again, so that transactions stuck on each other don't all give up (and
+     * then retry) at the same moment.
+     */
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public long getTimeout() {
+        return timeoutMillis;
+    }
+
+    /** Sets how the transaction aborted to break a deadlock is chosen. */
+    public void setVictimPolicy(VictimPolicy victimPolicy) {
+        this.victimPolicy = victimPolicy;
+    }
+
+    public VictimPolicy getVictimPolicy() {
+        return victimPolicy;
+    }
+
+    /**
+     * Sets how many pages of one table a transaction may lock before its
+     * page locks are escalated to a lock on the whole table.
+     */
+    public void setEscalationThreshold(int escalationThreshold) {
+        this.escalationThreshold = escalationThreshold;
+    }
+
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    /**
+     * Acquires a lock on the specified page, blocking until it is granted.
+     * The transaction's table lock is checked first; if it already covers
+     * the page, no page lock is taken. Otherwise an intention lock is taken
+     * on the table, unless the transaction holds one already, then the page
+     * lock, and the transaction's page locks on the table are escalated if
+     * there are now too many of them. Only the first page lock in a table
+     * latches the table's stripe, so page locks on one table don't all
+     * contend for it.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException if waiting for the lock would
+     *   deadlock and this transaction was chosen as the victim, if the lock
+     *   couldn't be granted within the timeout, or if the wait was
+     *   interrupted or cancelled
+     */
+    public void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean write = perm.equals(Permissions.READ_WRITE);
+        TransactionLocks locks = held.get(tid);
+        LockMode tableMode = locks == null ? null : locks.tableMode(pid.getTableId());
+        if (tableMode != null && tableMode.covers(write ? LockMode.X : LockMode.S))
+            return;
+
+        LockMode intention = write ? LockMode.IX : LockMode.IS;
+        if (tableMode == null || !tableMode.covers(intention))
+            acquire(tid, new TableResource(pid.getTableId()), intention);
+        if (acquire(tid, pid, write ? LockMode.X : LockMode.S))
+            maybeEscalate(tid, pid.getTableId());
+    }
+
+    /**
+     * Acquires a shared or exclusive lock on a whole table, blocking until it
+     * is granted. A table lock grants the same access to every page of the
+     * table; see {@link #acquireLock}.
+     *
+     * @param tid the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException as for {@link #acquireLock}
+     */
+    public void acquireTableLock(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        boolean write = perm.equals(Permissions.READ_WRITE);
+        acquire(tid, new TableResource(tableId), write ? LockMode.X : LockMode.S);
+    }
+
+    /**
+     * Replaces the transaction's page locks on the table with a table lock,
+     * if it holds more than the escalation threshold of them. The table lock
+     * is exclusive if the transaction has been writing to the table (it
+     * holds IX or SIX), and shared otherwise.
+     */
+    private void maybeEscalate(TransactionId tid, int tableId)
+            throws TransactionAbortedException {
+        TransactionLocks locks = held.get(tid);
+        if (locks == null || locks.pagesLocked(tableId) <= escalationThreshold)
+            return;
+        LockMode tableMode = locks.tableMode(tableId);
+        acquire(tid, new TableResource(tableId),
+                tableMode == LockMode.IS ? LockMode.S : LockMode.X);
+
+        // the table lock now covers every page lock of the table
+        for (Object resource : locks.resources) {
+            if (resource instanceof PageId
+                    && ((PageId) resource).getTableId() == tableId)
+                releaseLock(tid, (PageId) resource);
+        }
+    }
+
+    /** @return the mode tid holds on the resource, or null */
+    private LockMode heldMode(TransactionId tid, Object resource) {
+        Stripe stripe = stripeFor(resource);
+        stripe.latch.lock();
+        try {
+            LockEntry e = stripe.table.get(resource);
+            return e == null ? null : e.holders.get(tid);
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /**
+     * Acquires a lock in the given mode on a resource, upgrading the lock
+     * the transaction already holds if necessary.
+     *
+     * @return true if the transaction held no lock on the resource before
+     */
+    private boolean acquire(TransactionId tid, Object resource, LockMode mode)
+            throws TransactionAbortedException {
+        Stripe stripe = stripeFor(resource);
+        stripe.latch.lock();
+        try {
+            LockEntry e = stripe.table.get(resource);
+            if (e == null) {
+                e = new LockEntry();
+                stripe.table.put(resource, e);
+            }
+            LockMode current = e.holders.get(tid);
+            if (current != null && current.covers(mode))
+                return false;
+
+            boolean upgrade = current != null;
+            LockMode target = upgrade ? current.combine(mode) : mode;
+            if ((upgrade || e.waiters.isEmpty()) && isCompatible(e, tid, target)) {
+                grant(resource, e, tid, target);
+                return !upgrade;
+            }
+
+            LockRequest r = new LockRequest(tid, resource, target, e,
+                    stripe.latch.newCondition());
+            if (upgrade)
+                e.waiters.addFirst(r);
+            else
+                e.waiters.addLast(r);
+            addTo(waiting, tid, r);
+            awaitGrant(stripe, e, r);
+            return !upgrade;
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /** Parks until r is granted; must be called with the stripe latch held. */
+    private void awaitGrant(Stripe stripe, LockEntry e, LockRequest r)
+            throws TransactionAbortedException {
+        long timeout = timeoutMillis + (long) (Math.random() * timeoutMillis);
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            resolveDeadlocks(stripe, r);
+            while (!r.granted) {
+                if (r.cancelled || remaining <= 0)
+                    throw new TransactionAbortedException();
+                remaining = r.ready.awaitNanos(remaining);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            // an asynchronous exception (Thread.stop) may arrive while
+            // parked, with the latch released
+            if (!stripe.latch.isHeldByCurrentThread())
+                stripe.latch.lock();
+            removeFrom(waiting, r.tid, r);
+            if (!r.granted) {
+                // leaving the queue may unblock whoever was behind us
+                e.waiters.remove(r);
+                grantWaiters(e);
+                removeIfFree(stripe, r.resource, e);
+            }
+        }
+    }
+
+    /**
+     * Aborts deadlocked transactions until no cycle in the waits-for graph
+     * passes through the transaction that has just queued r. Since the graph
+     * had no cycles before, those are the only ones there can be.
+     * <p>
+     * The graph spans every stripe, so the search latches all of them, in
+     * order; the caller's own stripe is given up first so the order holds.
+     * It is held again when this returns.
+     */
+    private void resolveDeadlocks(Stripe own, LockRequest r)
+            throws TransactionAbortedException {
+        if (victimPolicy == VictimPolicy.NONE)
+            return;
+        own.latch.unlock();
+        try {
+            for (Stripe s : stripes)
+                s.latch.lock();
+            List<TransactionId> cycle;
+            while (!r.granted && (cycle = findCycle(r.tid)) != null) {
+                TransactionId victim = chooseVictim(cycle);
+                if (victim.equals(r.tid))
+                    throw new TransactionAbortedException();
+                for (LockRequest vr : waiting.get(victim)) {
+                    if (!vr.granted) {
+                        vr.cancelled = true;
+                        vr.ready.signal();
+                    }
+                }
+            }
+        } finally {
+            for (Stripe s : stripes) {
+                if (s != own && s.latch.isHeldByCurrentThread())
+                    s.latch.unlock();
+            }
+        }
+    }
+
+    /** @return the transactions on a waits-for cycle through start, or null */
+    private List<TransactionId> findCycle(TransactionId start) {
+        LinkedList<TransactionId> path = new LinkedList<TransactionId>();
+        path.add(start);
+        if (findCycle(start, start, path, new HashSet<TransactionId>()))
+            return path;
+        return null;
+    }
+
+    private boolean findCycle(TransactionId start, TransactionId t,
+            LinkedList<TransactionId> path, Set<TransactionId> visited) {
+        for (TransactionId u : waitsFor(t)) {
+            if (u.equals(start))
+                return true;
+            if (visited.add(u)) {
+                path.addLast(u);
+                if (findCycle(start, u, path, visited))
+                    return true;
+                path.removeLast();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the transactions that t waits for: the conflicting holders of
+     *   every resource it is queued on, and everyone queued ahead of it there
+     */
+    private Set<TransactionId> waitsFor(TransactionId t) {
+        Set<TransactionId> result = new HashSet<TransactionId>();
+        Set<LockRequest> rs = waiting.get(t);
+        if (rs == null)
+            return result;
+        for (LockRequest r : rs) {
+            if (r.granted || r.cancelled)
+                continue;
+            LockEntry e = r.entry;
+            for (Map.Entry<TransactionId, LockMode> h : e.holders.entrySet()) {
+                if (!h.getValue().isCompatibleWith(r.mode))
+                    result.add(h.getKey());
+            }
+            for (LockRequest ahead : e.waiters) {
+                if (ahead == r)
+                    break;
+                if (!ahead.cancelled)
+                    result.add(ahead.tid);
+            }
+        }
+        result.remove(t);
+        return result;
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = null;
+        int victimLocks = 0;
+        for (TransactionId t : cycle) {
+            int locks = victimPolicy == VictimPolicy.FEWEST_LOCKS ? numLocks(t) : 0;
+            if (victim == null || locks < victimLocks
+                    || (locks == victimLocks && t.getId() > victim.getId())) {
+                victim = t;
+                victimLocks = locks;
+            }
+        }
+        return victim;
+    }
+
+    /** @return the number of tables and pages t holds a lock on */
+    private int numLocks(TransactionId t) {
+        TransactionLocks locks = held.get(t);
+        return locks == null ? 0 : locks.resources.size();
+    }
+
+    /**
+     * Return true if the specified transaction has a lock on the specified
+     * page, either on the page itself or through a lock on its table.
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        if (heldMode(tid, pid) != null)
+            return true;
+        TransactionLocks locks = held.get(tid);
+        LockMode tableMode = locks == null ? null : locks.tableMode(pid.getTableId());
+        return tableMode != null && tableMode.covers(LockMode.S);
+    }
+
+    /**
+     * Releases whatever lock the transaction holds on the page, and grants
+     * the lock to the waiters that can now proceed. Locks on the page's
+     * table are not affected.
+     */
+    public void releaseLock(TransactionId tid, PageId pid) {
+        Stripe stripe = stripeFor(pid);
+        stripe.latch.lock();
+        try {
+            LockEntry e = stripe.table.get(pid);
+            if (e == null)
+                return;
+            release(pid, e, tid);
+            grantWaiters(e);
+            removeIfFree(stripe, pid, e);
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /**
+     * Releases every lock held by the transaction, and cancels any request
+     * it still has waiting. Only the transaction's own locks are visited.
+     */
+    public void releaseTransactionLocks(TransactionId tid) {
+        Set<LockRequest> rs = waiting.get(tid);
+        if (rs != null) {
+            for (LockRequest r : rs) {
+                Stripe stripe = stripeFor(r.resource);
+                stripe.latch.lock();
+                try {
+                    if (!r.granted) {
+                        r.cancelled = true;
+                        r.ready.signal();
+                    }
+                } finally {
+                    stripe.latch.unlock();
+                }
+            }
+        }
+        TransactionLocks locks = held.remove(tid);
+        if (locks == null)
+            return;
+        for (Object resource : locks.resources) {
+            Stripe stripe = stripeFor(resource);
+            stripe.latch.lock();
+            try {
+                LockEntry e = stripe.table.get(resource);
+                if (e == null)
+                    continue;
+                e.holders.remove(tid);
+                grantWaiters(e);
+                removeIfFree(stripe, resource, e);
+            } finally {
+                stripe.latch.unlock();
+            }
+        }
+    }
+
+    private static boolean isCompatible(LockEntry e, TransactionId tid, LockMode mode) {
+        for (Map.Entry<TransactionId, LockMode> h : e.holders.entrySet()) {
+            if (!h.getKey().equals(tid) && !h.getValue().isCompatibleWith(mode))
+                return false;
+        }
+        return true;
+    }
+
+    private void grant(Object resource, LockEntry e, TransactionId tid, LockMode mode) {
+        e.holders.put(tid, mode);
+        held.computeIfAbsent(tid, t -> new TransactionLocks()).added(resource, mode);
+    }
+
+    private void release(Object resource, LockEntry e, TransactionId tid) {
+        if (e.holders.remove(tid) != null) {
+            TransactionLocks locks = held.get(tid);
+            if (locks != null)
+                locks.removed(resource);
+        }
+    }
+
+    /** Grants queued requests in FIFO order until one has to keep waiting. */
+    private void grantWaiters(LockEntry e) {
+        while (!e.waiters.isEmpty()) {
+            LockRequest r = e.waiters.getFirst();
+            if (!r.cancelled && !isCompatible(e, r.tid, r.mode))
+                return;
+            e.waiters.removeFirst();
+            if (!r.cancelled) {
+                grant(r.resource, e, r.tid, r.mode);
+                r.granted = true;
+                r.ready.signal();
+            }
+        }
+    }
+
+    private static void removeIfFree(Stripe stripe, Object resource, LockEntry e) {
+        if (e.isFree())
+            stripe.table.remove(resource);
+    }
+
+    // A transaction's requests live in many stripes, so its set is only
+    // changed inside compute(), which keeps adding to the set and dropping
+    // it once empty from racing; readers iterate it unlocked.
+
+    private static <T> void addTo(ConcurrentHashMap<TransactionId, Set<T>> m,
+            TransactionId tid, final T x) {
+        m.compute(tid, (t, set) -> {
+            if (set == null)
+                set = ConcurrentHashMap.newKeySet();
+            set.add(x);
+            return set;
+        });
+    }
+
+    private static <T> void removeFrom(ConcurrentHashMap<TransactionId, Set<T>> m,
+            TransactionId tid, final T x) {
+        m.computeIfPresent(tid, (t, set) -> {
+            set.remove(x);
+            return set.isEmpty() ? null : set;
+        });
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb;
+
+/**
+ * The modes a lock can be held in under multi-granularity locking. S and X
+ * are the usual shared and exclusive locks. The intention modes are taken on
+ * a table before locking pages in it: IS before shared page locks, IX before
+ * exclusive ones, and SIX by a transaction that reads the whole table (S)
+ * while updating some of its pages (IX).
+ *
+ * @see LockManager
+ */
+public enum LockMode {
+    IS, IX, S, SIX, X;
+
+    private static final boolean[][] COMPATIBLE = {
+        //          IS     IX     S      SIX    X
+        /* IS  */ { true,  true,  true,  true,  false },
+        /* IX  */ { true,  true,  false, false, false },
+        /* S   */ { true,  false, true,  false, false },
+        /* SIX */ { true,  false, false, false, false },
+        /* X   */ { false, false, false, false, false },
+    };
+
+    /**
+     * @return true if one transaction may hold this mode while another holds
+     *   the other mode on the same resource
+     */
+    public boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /**
+     * @return the weakest mode that grants everything both this mode and the
+     *   other one do; the mode a lock is upgraded to when its holder asks
+     *   for the other mode as well
+     */
+    public LockMode combine(LockMode other) {
+        if (this == other || other == IS)
+            return this;
+        if (this == IS)
+            return other;
+        if (this == X || other == X)
+            return X;
+        // what's left is some pair of IX, S and SIX
+        return SIX;
+    }
+
+    /** @return true if holding this mode already grants the other one */
+    public boolean covers(LockMode other) {
+        return combine(other) == this;
+    }
+}
@@ -51,8 +51,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and EXTENT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,6 +61,11 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li> EXTENT records stand in for the UPDATE records of a run of new
+pages appended to a table by a bulk load (see BulkLoader), whose before
+images are all empty pages.  They consist of an integer table id, the
+integer number of the first page and the integer number of pages.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
@@ -75,6 +80,9 @@ public class LogFile {
 
     final File logFile;
     private RandomAccessFile raf;
+    // page images are copied here to be written to the log, rather than
+    // into a new array each time; guarded by this
+    private byte[] pageBuf = new byte[0];
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,6 +90,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int EXTENT_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -149,15 +158,17 @@ public class LogFile {
 
         synchronized (Database.getBufferPool()) {
 
+            // must do this here, since rollback only works for
+            // live transactions (needs tidToFirstLogRecord). Not under
+            // this, since it calls into the BufferPool, which calls
+            // logWrite with its own locks held.
+            rollback(tid);
+
             synchronized(this) {
                 preAppend();
                 //Debug.log("ABORT");
                 //should we verify that this is a live transaction?
 
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
-
                 raf.writeInt(ABORT_RECORD);
                 raf.writeLong(tid.getId());
                 raf.writeLong(currentOffset);
@@ -218,6 +229,29 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write an EXTENT record to disk for the specified tid, and force
+        the log to disk: numPages new pages of a table, from firstPage on,
+        are about to be written by a bulk load, without an UPDATE record
+        for each.  Rolling the transaction back empties them again.
+        @param tid The transaction writing the pages
+        @param tableId The table the pages belong to
+        @param firstPage The number of the first page
+        @param numPages The number of pages
+    */
+    public synchronized void logExtent(TransactionId tid, int tableId,
+                                       int firstPage, int numPages)
+        throws IOException {
+        preAppend();
+        raf.writeInt(EXTENT_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(firstPage);
+        raf.writeInt(numPages);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+        force();
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -240,9 +274,12 @@ public class LogFile {
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        int len = BufferPool.getPageSize();
+        if (pageBuf.length != len)
+            pageBuf = new byte[len];
+        p.copyPageData(java.nio.ByteBuffer.wrap(pageBuf));
+        raf.writeInt(len);
+        raf.write(pageBuf);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
@@ -265,7 +302,16 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // the (PageId, byte[]) constructor every Page has
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[0].isInstance(pid)
+                        && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new InstantiationException("no (PageId, byte[]) constructor in " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +321,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -320,6 +366,9 @@ public class LogFile {
     public void logCheckpoint() throws IOException {
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
+            // flushing logs the pages written, so it can't be done under this
+            Database.getBufferPool().flushAllPages();
+            Database.getBufferPool().saveFreeSpaceMaps();
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
@@ -327,7 +376,6 @@ public class LogFile {
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
                 force();
-                Database.getBufferPool().flushAllPages();
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -426,6 +474,10 @@ public class LogFile {
                         logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
                     }
                     break;
+                case EXTENT_RECORD:
+                    for (int i = 0; i < 3; i++)
+                        logNew.writeInt(raf.readInt());
+                    break;
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
@@ -464,11 +516,70 @@ public class LogFile {
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
         synchronized (Database.getBufferPool()) {
+            Map<PageId, Page> beforeImages;
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                beforeImages = readBeforeImages(tid);
+            }
+            // the BufferPool calls logWrite with its own locks held, so it
+            // must not be called under this
+            Database.getBufferPool().undoWrites(tid, beforeImages);
+        }
+    }
+
+    /** Read the before image of every page the specified transaction has
+        logged an update of: the image in the first UPDATE record of the
+        page, which is what the page held before the transaction touched
+        it.  Pages of an EXTENT record get an empty page.  Transactions that never logged a BEGIN record (e.g. ones that
+        only use the BufferPool directly) are looked for from the start of
+        the log.
+
+        @param tid The transaction whose updates to look for
+        @return the before images, by page id
+    */
+    synchronized Map<PageId, Page> readBeforeImages(TransactionId tid)
+        throws IOException {
+        Map<PageId, Page> images = new HashMap<PageId, Page>();
+        if (recoveryUndecided)
+            return images; // nothing has been logged yet
+
+        Long first = tidToFirstLogRecord.get(tid.getId());
+        raf.seek(first != null ? first : LONG_SIZE);
+        try {
+            while (raf.getFilePointer() < currentOffset) {
+                int type = raf.readInt();
+                long recordTid = raf.readLong();
+                switch (type) {
+                case UPDATE_RECORD:
+                    Page before = readPageData(raf);
+                    readPageData(raf); // after image
+                    if (recordTid == tid.getId() && !images.containsKey(before.getId()))
+                        images.put(before.getId(), before);
+                    break;
+                case EXTENT_RECORD:
+                    int tableId = raf.readInt();
+                    int firstPage = raf.readInt();
+                    int numPages = raf.readInt();
+                    if (recordTid != tid.getId())
+                        break;
+                    // the pages were new, so they were empty before
+                    for (int pgNo = firstPage; pgNo < firstPage + numPages; pgNo++) {
+                        HeapPageId pid = new HeapPageId(tableId, pgNo);
+                        if (!images.containsKey(pid))
+                            images.put(pid, new HeapPage(pid, HeapPage.createEmptyPageData()));
+                    }
+                    break;
+                case CHECKPOINT_RECORD:
+                    int numXactions = raf.readInt();
+                    raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                    break;
+                }
+                raf.readLong(); // start offset of the record
             }
+        } finally {
+            raf.seek(currentOffset);
         }
+        return images;
     }
 
     /** Shutdown the logging system, writing out whatever state
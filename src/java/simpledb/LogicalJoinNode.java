@@ -8,7 +8,7 @@ public class LogicalJoinNode {
 	
 	//For EC4: Stores the type of join that will be used for this node.
 	public enum JoinType implements Serializable {
-		NESTED_LOOP, HASH;
+		NESTED_LOOP, HASH, SORT_MERGE;
 		
 		public String toString() {
             if (this == NESTED_LOOP)
@@ -16,6 +16,8 @@ public class LogicalJoinNode {
             if (this == HASH) {
             	return "Hash Join";
             }
+            if (this == SORT_MERGE)
+                return "Sort-Merge Join";
             throw new IllegalStateException("impossible to reach here");
 		}
 	}
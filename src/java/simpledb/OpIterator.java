@@ -34,6 +34,29 @@ public interface OpIterator extends Serializable{
    */
   public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns the next batch of tuples from the operator, for consumers that
+   * run a batch at a time. The batch belongs to the iterator and is only
+   * valid until the iterator is next used; the caller may narrow its
+   * selection, but must not change its values. A consumer should read the
+   * tuples of an iterator either with next or with nextBatch, not both.
+   * <p>
+   * This default reads up to TupleBatch.DEFAULT_CAPACITY tuples with next;
+   * operators that can work on a batch at a time override it.
+   *
+   * @return the next batch, with at least one row, or null if there are no
+   *   more tuples.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  public default TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+      if (!hasNext())
+          return null;
+      TupleBatch b = new TupleBatch(getTupleDesc());
+      while (!b.isFull() && hasNext())
+          b.addTuple(next());
+      return b;
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
@@ -7,7 +7,7 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  *     Page(PageId id, byte[] data)
  */
 public interface Page {
@@ -46,6 +46,17 @@ public interface Page {
 
     public byte[] getPageData();
 
+  /**
+   * Copies the bytes getPageData would return into dst, at its position,
+   * without allocating an array for them. dst's position is advanced past
+   * them.
+   *
+   * @param dst the buffer to copy into; must have a page of room left
+   */
+    public default void copyPageData(java.nio.ByteBuffer dst) {
+        dst.put(getPageData());
+    }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
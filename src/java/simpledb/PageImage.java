@@ -0,0 +1,31 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The bytes of a HeapPage, as seen by the tuples read from it: a tuple
+ * keeps the image it was read from, and decodes each field from it only
+ * when the field is first asked for (see {@link Tuple#getField}).
+ * <p>
+ * The image must not change under the tuples. Before a HeapPage writes
+ * into a slot of an image it has handed out, it gives the image a copy of
+ * the bytes and goes on with a new image of its own; and when the page is
+ * moved out of a BufferPool frame, the image moves with it. Either way the
+ * bytes are swapped holding the image's monitor, which tuples also hold
+ * while they decode from it, so that a tuple whose page is no longer
+ * pinned never reads a frame the pool has since given to another page.
+ *
+ * @see HeapPage
+ */
+final class PageImage {
+
+    /** The page bytes, in the on-disk format; replaced only holding this. */
+    volatile ByteBuffer data;
+
+    /** True once a tuple may be reading the image. */
+    volatile boolean shared;
+
+    PageImage(ByteBuffer data) {
+        this.data = data;
+    }
+}
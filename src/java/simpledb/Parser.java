@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -492,7 +494,39 @@ public class Parser {
         return curtrans;
     }
 
+    /** COPY table FROM 'file' [DELIMITER 'c'], which Zql can't parse */
+    static final Pattern COPY_STATEMENT = Pattern.compile(
+            "\\s*COPY\\s+(\\w+)\\s+FROM\\s+'([^']*)'(?:\\s+DELIMITER\\s+'(.)')?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Appends the tuples of a text file to a table with a {@link BulkLoader},
+     * in the current transaction.
+     */
+    public void handleCopyStatement(String table, File in, char fieldSeparator,
+            TransactionId tId) throws TransactionAbortedException, DbException,
+            IOException, simpledb.ParsingException {
+        int tableId;
+        try {
+            tableId = Database.getCatalog().getTableId(table);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + table);
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile))
+            throw new simpledb.ParsingException("COPY only loads heap files");
+        BulkLoader loader = new BulkLoader(tId, (HeapFile) file);
+        loader.open();
+        loader.load(in, fieldSeparator);
+        System.out.println(loader.close() + " rows.");
+    }
+
     public void processNextStatement(String s) {
+        Matcher copy = COPY_STATEMENT.matcher(s);
+        if (copy.matches()) {
+            processCopyStatement(copy);
+            return;
+        }
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
@@ -578,10 +612,44 @@ public class Parser {
         }
     }
 
+    /** Runs a COPY statement, in its own transaction unless one is open. */
+    private void processCopyStatement(Matcher copy) {
+        if (!this.inUserTrans) {
+            curtrans = new Transaction();
+            curtrans.start();
+        }
+        try {
+            char sep = copy.group(3) != null ? copy.group(3).charAt(0) : ',';
+            handleCopyStatement(copy.group(1), new File(copy.group(2)), sep,
+                    curtrans.getId());
+            if (!inUserTrans)
+                curtrans.commit();
+        } catch (simpledb.ParsingException e) {
+            System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
+            abortCopy();
+        } catch (Exception e) {
+            e.printStackTrace();
+            abortCopy();
+        } finally {
+            if (!inUserTrans)
+                curtrans = null;
+        }
+    }
+
+    private void abortCopy() {
+        try {
+            if (curtrans != null)
+                curtrans.abort();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        inUserTrans = false;
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "copy" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -683,8 +751,12 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    Matcher copy = COPY_STATEMENT.matcher(cmd);
+                    if (copy.matches())
+                        processCopyStatement(copy);
+                    else
+                        processNextStatement(new ByteArrayInputStream(
+                                statementBytes));
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
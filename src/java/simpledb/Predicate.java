@@ -102,6 +102,56 @@ public class Predicate implements Serializable {
       
     }
 
+    /**
+     * Drops from the batch's selection the rows for which filter would
+     * return false. An int column compared with an int is tested straight
+     * from its vector, in a loop per operator.
+     *
+     * @param b
+     *            The batch to filter
+     */
+    public void filter(TupleBatch b) {
+        int[] sel = b.sel;
+        int n = b.selected;
+        int kept = 0;
+        int[] v = b.intColumn(field);
+        if (v != null && operand instanceof IntField) {
+            int x = ((IntField) operand).getValue();
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < n; i++)
+                    if (v[sel[i]] == x) sel[kept++] = sel[i];
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++)
+                    if (v[sel[i]] != x) sel[kept++] = sel[i];
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++)
+                    if (v[sel[i]] > x) sel[kept++] = sel[i];
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++)
+                    if (v[sel[i]] >= x) sel[kept++] = sel[i];
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++)
+                    if (v[sel[i]] < x) sel[kept++] = sel[i];
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < n; i++)
+                    if (v[sel[i]] <= x) sel[kept++] = sel[i];
+                break;
+            }
+        } else {
+            for (int i = 0; i < n; i++)
+                if (b.getField(field, sel[i]).compare(op, operand))
+                    sel[kept++] = sel[i];
+        }
+        b.selected = kept;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
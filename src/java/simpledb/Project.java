@@ -80,6 +80,20 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Returns the child's batches with just the projected columns, sharing
+     * the child's vectors rather than copying them.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b = child.nextBatch();
+        if (b == null)
+            return null;
+        int[] columns = new int[outFieldIds.size()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = outFieldIds.get(i);
+        return b.project(td, columns);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
@@ -107,10 +107,13 @@ public class Query implements Serializable {
 
         this.start();
         int cnt = 0;
-        while (this.hasNext()) {
-            Tuple tup = this.next();
-            System.out.println(tup);
-            cnt++;
+        // the plan is run a batch at a time
+        TupleBatch batch;
+        while ((batch = op.nextBatch()) != null) {
+            for (int i = 0; i < batch.numRows(); i++) {
+                System.out.println(batch.getTuple(i));
+                cnt++;
+            }
         }
         System.out.println("\n " + cnt + " rows.");
         this.close();
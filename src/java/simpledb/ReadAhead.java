@@ -0,0 +1,114 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Read-ahead for one sequential scan of a table: as the scan moves from page
+ * to page, the next few pages are asked for with
+ * {@link BufferPool#prefetchPage}, so they are read while the scan works on
+ * the ones it already has.
+ * <p>
+ * The scan calls {@link #reached} as it moves to a page and
+ * {@link #advance} once it has it.
+ * <p>
+ * The number of pages asked for ahead of the scan (the window) adapts to
+ * how fast the scan consumes them. When the scan reaches a page whose
+ * prefetch hasn't finished yet, reads are falling behind and the window
+ * doubles; when a prefetch gave up, because the pool had no clean frame to
+ * spare, the window halves. The window never grows past
+ * {@link BufferPool#getMaxReadAhead}, and read-ahead is off when the pool
+ * is too small for it. A scan that jumps to a page other than the next one
+ * starts over with the smallest window.
+ */
+class ReadAhead {
+
+    /** The window a scan starts with. */
+    static final int MIN_WINDOW = 2;
+
+    private final BufferPool bp;
+    private final TransactionId tid;
+    private final int tableId;
+    private final int maxWindow;
+
+    private int window = MIN_WINDOW;
+    // the page the scan is on, and the next page not yet asked for
+    private int last = -1;
+    private int next = 0;
+    // prefetches the scan hasn't reached yet, by page number
+    private final Map<Integer, Future<Boolean>> pending =
+            new HashMap<Integer, Future<Boolean>>();
+
+    ReadAhead(BufferPool bp, TransactionId tid, int tableId) {
+        this.bp = bp;
+        this.tid = tid;
+        this.tableId = tableId;
+        this.maxWindow = bp.getMaxReadAhead();
+    }
+
+    /** @return the number of pages currently read ahead of the scan */
+    int getWindow() {
+        return window;
+    }
+
+    /**
+     * Called as the scan moves to page pgNo, before it asks the pool for
+     * the page: sizes the window by whether the page's prefetch is done.
+     */
+    void reached(int pgNo) {
+        if (maxWindow < MIN_WINDOW)
+            return;
+        if (pgNo != last + 1) {
+            // not sequential any more; forget what was asked for
+            pending.clear();
+            window = MIN_WINDOW;
+            next = pgNo + 1;
+        }
+        last = pgNo;
+
+        Future<Boolean> f = pending.remove(pgNo);
+        if (f != null) {
+            if (!f.isDone())
+                window = Math.min(window * 2, maxWindow);
+            else if (!succeeded(f))
+                window = Math.max(window / 2, MIN_WINDOW);
+        }
+    }
+
+    /**
+     * Called once the scan has page pgNo: asks for the pages of the window
+     * after it that haven't been asked for yet. Asking only now keeps the
+     * scan's own read and the prefetches from competing for the disk.
+     *
+     * @param pgNo the page the scan is on
+     * @param numPages the number of pages in the table
+     */
+    void advance(int pgNo, int numPages) {
+        if (maxWindow < MIN_WINDOW || pgNo != last)
+            return;
+        next = Math.max(next, pgNo + 1);
+        int end = Math.min(pgNo + 1 + window, numPages);
+        for (; next < end; next++)
+            pending.put(next, bp.prefetchPage(tid, new HeapPageId(tableId, next)));
+
+        // drop prefetches for pages the scan has passed
+        for (Iterator<Integer> it = pending.keySet().iterator(); it.hasNext();) {
+            if (it.next() < pgNo)
+                it.remove();
+        }
+    }
+
+    private static boolean succeeded(Future<Boolean> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+}
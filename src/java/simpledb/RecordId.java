@@ -9,8 +9,8 @@ import java.io.Serializable;
 public class RecordId implements Serializable {
 
     private static final long serialVersionUID = 1L;
-    private PageId pid;
-    private int tupleno;
+    private final PageId pid;
+    private final int tupleno;
     /**
      * Creates a new RecordId referring to the specified PageId and tuple
      * number.
@@ -53,10 +53,7 @@ public class RecordId implements Serializable {
     		return false;
     	}
     	RecordId rid = (RecordId) o;
-    	if (pid.hashCode() != rid.pid.hashCode() || tupleno != rid.tupleno) {
-    		return false;
-    	}
-        return true;
+    	return tupleno == rid.tupleno && pid.equals(rid.pid);
     }
 
     /**
@@ -67,9 +64,9 @@ public class RecordId implements Serializable {
      */
     @Override
     public int hashCode() {
-    	String s = "" + pid.hashCode() + tupleno;
-    	return Integer.parseInt(s);
-
+    	// scatter the pages, so that the slots of neighbouring pages don't
+    	// overlap as they would with a small multiplier
+    	return pid.hashCode() * 0x9e3779b9 + tupleno;
     }
 
 }
@@ -0,0 +1,68 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool gives up when it needs
+ * room for a new one. The pool tells the policy about every frame it adds,
+ * hits and removes; implementations keep their state inside the
+ * {@link BufferFrame}s themselves so that all of these calls are O(1).
+ * <p>
+ * Every call carries a <code>sequential</code> hint, set when the page is
+ * being touched by a scan that is unlikely to come back to it (see
+ * {@link BufferPool#getPage(TransactionId, PageId, Permissions, boolean)}).
+ * Scan-resistant policies use it to keep such pages out of their hot set;
+ * other policies are free to ignore it.
+ * <p>
+ * Policies are not thread safe; the BufferPool serializes calls into them.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /** The replacement policies that ship with SimpleDb. */
+    public enum Kind {
+        LRU, CLOCK, TWO_QUEUE;
+
+        /**
+         * Create a new, empty policy of this kind.
+         *
+         * @param numPages the capacity of the pool the policy will serve
+         */
+        public ReplacementPolicy create(int numPages) {
+            if (this == LRU)
+                return new LRUPolicy();
+            if (this == CLOCK)
+                return new ClockPolicy();
+            if (this == TWO_QUEUE)
+                return new TwoQueuePolicy(numPages);
+            throw new IllegalStateException("impossible to reach here");
+        }
+    }
+
+    /** Called after a frame has been brought into the pool. */
+    public void frameAdded(BufferFrame f, boolean sequential);
+
+    /** Called every time a frame already in the pool is requested. */
+    public void frameAccessed(BufferFrame f, boolean sequential);
+
+    /** Called after a frame has been evicted or discarded from the pool. */
+    public void frameRemoved(BufferFrame f);
+
+    /**
+     * Picks the frame that should be evicted next. The frame is not removed;
+     * the BufferPool does that (and calls {@link #frameRemoved}) once it has
+     * dealt with the page.
+     *
+     * @param steal true if frames holding dirty pages may be picked too
+     * @return an evictable frame (see {@link BufferFrame#isEvictable}), or
+     *   null if no frame can be evicted.
+     */
+    public BufferFrame chooseVictim(boolean steal);
+
+    /**
+     * Picks the clean page that should be evicted next; see
+     * {@link #chooseVictim(boolean)}.
+     */
+    public default BufferFrame chooseVictim() {
+        return chooseVictim(false);
+    }
+}
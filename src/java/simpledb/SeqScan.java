@@ -17,6 +17,8 @@ public class SeqScan implements OpIterator {
     private HeapDBFileIterator hdbf_iter;
     private HeapFile hf;
     private TupleDesc td;
+    // filled by nextBatch, and reused by every call
+    private transient TupleBatch batch;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -142,6 +144,17 @@ public class SeqScan implements OpIterator {
         }
     }
 
+    /**
+     * Decodes the tuples of the table straight from its pages into a batch,
+     * without making a Tuple for each.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(td);
+        batch.clear();
+        return hdbf_iter.nextBatch(batch) ? batch : null;
+    }
+
     public void close() {
     	hdbf_iter.close();
     }
@@ -44,7 +44,8 @@ public class SimpleDb {
             }
 
             HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator,
+                        Runtime.getRuntime().availableProcessors(), System.out);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -67,6 +68,33 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("copy")) {
+            // append a text file to a table of a catalog, with BulkLoader
+            if (args.length < 4 || args.length > 5) {
+                System.err.println("Usage: copy catalogFile table textFile [fieldSeparator]");
+                return;
+            }
+            Database.getCatalog().loadSchema(args[1]);
+            int tableId = Database.getCatalog().getTableId(args[2]);
+            HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+            char fieldSeparator = args.length == 5 ? args[4].charAt(0) : ',';
+
+            Transaction t = new Transaction();
+            t.start();
+            BulkLoader loader = new BulkLoader(t.getId(), table);
+            int n;
+            try {
+                loader.open();
+                loader.load(new File(args[3]), fieldSeparator);
+                n = loader.close();
+            } catch (Exception e) {
+                // whatever went wrong, empty the extents already written
+                t.abort();
+                throw e;
+            }
+            t.commit();
+            System.out.println(n + " tuples loaded into " + args[2]);
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
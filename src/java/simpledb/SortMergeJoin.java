@@ -0,0 +1,213 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two relations sorted on their join
+ * fields. It handles equality joins and band joins (LESS_THAN,
+ * LESS_THAN_OR_EQ, GREATER_THAN, GREATER_THAN_OR_EQ): with both sides in
+ * ascending order, the inner tuples that match an outer one are a range of
+ * the inner relation, whose ends only move forward from one outer tuple to
+ * the next. So each side is read once, rather than the inner one once per
+ * outer tuple as in {@link Join}.
+ * <p>
+ * A child is sorted with an {@link OrderBy} unless it already comes in
+ * ascending order of its join field: from an ascending OrderBy on that
+ * field, or from another SortMergeJoin on it. The inner relation is held in
+ * memory, as OrderBy holds what it sorts.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private OpIterator[] children;
+    private TupleDesc td;
+
+    // the sorted inputs: child1 or child2, or an OrderBy over it
+    private transient OpIterator outer;
+    private transient OpIterator inner;
+    // the inner tuples in order, and for the current outer tuple, the first
+    // inner tuple not below it and the first above it
+    private transient ArrayList<Tuple> right;
+    private transient int lt;
+    private transient int le;
+    // the current outer tuple and the range of inner tuples it matches
+    private transient Tuple left;
+    private transient int pos;
+    private transient int end;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be one {@link #supports}
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge join can't join on " + p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        children = new OpIterator[]{child1, child2};
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return true if a SortMergeJoin can join on the given operator */
+    public static boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * @return true if the tuples of it come in ascending order of the given
+     *   field, so that a SortMergeJoin doesn't need to sort them
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (it instanceof SortMergeJoin) {
+            // in order of the outer join field, and for an equality join,
+            // of the inner one, which is the same
+            JoinPredicate jp = ((SortMergeJoin) it).getJoinPredicate();
+            int outerFields = ((SortMergeJoin) it).getChildren()[0].getTupleDesc().numFields();
+            return field == jp.getField1() || (jp.getOperator() == Predicate.Op.EQUALS
+                    && field == outerFields + jp.getField2());
+        }
+        return false;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public String getJoinField1Name() {
+        return children[0].getTupleDesc().getFieldName(getJoinPredicate().getField1());
+    }
+
+    public String getJoinField2Name() {
+        return children[1].getTupleDesc().getFieldName(getJoinPredicate().getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        outer = isSortedOn(child1, p.getField1()) ? child1 : new OrderBy(p.getField1(), true, child1);
+        inner = isSortedOn(child2, p.getField2()) ? child2 : new OrderBy(p.getField2(), true, child2);
+        outer.open();
+        inner.open();
+        readInner();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        // OrderBy leaves its child open
+        if (outer != null && outer != child1)
+            outer.close();
+        if (inner != null && inner != child2)
+            inner.close();
+        child1.close();
+        child2.close();
+        right = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        outer.rewind();
+        lt = le = 0;
+        left = null;
+    }
+
+    private void readInner() throws DbException, TransactionAbortedException {
+        right = new ArrayList<Tuple>();
+        while (inner.hasNext())
+            right.add(inner.next());
+        lt = le = 0;
+        left = null;
+    }
+
+    // Moves the ends of the inner range on to the current outer tuple's
+    // join field, and sets pos and end to the inner tuples that it matches.
+    private void seek(Field v) {
+        int f = p.getField2();
+        while (lt < right.size() && right.get(lt).getField(f).compare(Predicate.Op.LESS_THAN, v))
+            lt++;
+        if (le < lt)
+            le = lt;
+        while (le < right.size() && right.get(le).getField(f).compare(Predicate.Op.LESS_THAN_OR_EQ, v))
+            le++;
+        switch (p.getOperator()) {
+        case EQUALS:
+            pos = lt;
+            end = le;
+            break;
+        case LESS_THAN:
+            pos = le;
+            end = right.size();
+            break;
+        case LESS_THAN_OR_EQ:
+            pos = lt;
+            end = right.size();
+            break;
+        case GREATER_THAN:
+            pos = 0;
+            end = lt;
+            break;
+        default:
+            pos = 0;
+            end = le;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the concatenation of an outer tuple and an inner one that
+     * satisfy the join predicate, in ascending order of the outer join field.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (left == null || pos == end) {
+            if (!outer.hasNext())
+                return null;
+            left = outer.next();
+            seek(left.getField(p.getField1()));
+        }
+        Tuple rt = right.get(pos++);
+        Tuple joined = new Tuple(td);
+        int n = left.getTupleDesc().numFields();
+        for (int i = 0; i < n; i++)
+            joined.setField(i, left.getField(i));
+        for (int i = 0; i < rt.getTupleDesc().numFields(); i++)
+            joined.setField(n + i, rt.getField(i));
+        return joined;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.children = children;
+    }
+
+}
@@ -11,6 +11,10 @@ import simpledb.TupleDesc.TDItem;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple read from a HeapPage starts out with no Field objects: it keeps
+ * the bytes of the page, and decodes a field from them the first time it
+ * is asked for, so that fields no operator looks at are never decoded.
  */
 public class Tuple implements Serializable {
 
@@ -18,6 +22,10 @@ public class Tuple implements Serializable {
     private TupleDesc td;
     private RecordId rid;
     private Field[] fs;
+    // the page bytes the fields not yet decoded are read from, and where
+    // the tuple starts in them; null if every field is set
+    private transient PageImage image;
+    private int offset;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -31,6 +39,23 @@ public class Tuple implements Serializable {
         this.fs = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded from a page image as they are
+     * asked for.
+     *
+     * @param td
+     *            the schema of this tuple
+     * @param image
+     *            the bytes of the page the tuple is on
+     * @param offset
+     *            where the tuple starts in the page
+     */
+    Tuple(TupleDesc td, PageImage image, int offset) {
+        this(td);
+        this.image = image;
+        this.offset = offset;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -81,7 +106,28 @@ public class Tuple implements Serializable {
     	if (i > fs.length) {
     		return null;
     	}
-        return fs[i];
+        Field f = fs[i];
+        PageImage img = image;
+        if (f == null && img != null) {
+            // the page may move its bytes elsewhere meanwhile; see PageImage
+            synchronized (img) {
+                f = td.getFieldType(i).parse(img.data, offset + td.getOffset(i));
+            }
+            fs[i] = f;
+        }
+        return f;
+    }
+
+    /** Decodes every field not decoded yet, and lets go of the page. */
+    private void materialize() {
+        PageImage img = image;
+        if (img == null)
+            return;
+        synchronized (img) {
+            for (int i = 0; i < fs.length; i++)
+                getField(i);
+        }
+        image = null;
     }
 
     /**
@@ -93,6 +139,7 @@ public class Tuple implements Serializable {
      * where \t is any whitespace (except a newline)
      */
     public String toString() {
+        materialize();
         String s = "";
         for (int i = 0; i < fs.length; i++)
         {
@@ -109,10 +156,17 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
+        materialize();
     	Iterable<Field> iterable = Arrays.asList(fs);
         return iterable.iterator();
     }
 
+    private void writeObject(java.io.ObjectOutputStream out)
+            throws java.io.IOException {
+        materialize();
+        out.defaultWriteObject();
+    }
+
     /**
      * reset the TupleDesc of this tuple (only affecting the TupleDesc)
      * */
@@ -0,0 +1,219 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * TupleBatch holds a batch of tuples column by column, for operators that
+ * run a batch at a time (see {@link OpIterator#nextBatch}). Each int column
+ * is an int[] vector; other columns are vectors of Fields. A selection
+ * vector lists the rows of the batch that are in it: a Filter drops rows by
+ * narrowing the selection rather than moving any values, and a Project
+ * shares the vectors of the columns it keeps.
+ * <p>
+ * Rows are numbered from 0 to capacity - 1 in the vectors; the rows in the
+ * batch are row(0) ... row(numRows() - 1).
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of rows in a batch, unless an operator asks otherwise. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    // a vector per column: ints[i] for an int column, else fields[i]
+    private final int[][] ints;
+    private final Field[][] fields;
+    // where each row came from, or null if it wasn't read from a page
+    private final PageId[] pages;
+    private final int[] slots;
+    // the rows added so far, of which the selected ones are in the batch
+    private int size;
+    final int[] sel;
+    int selected;
+
+    /** Creates an empty batch of DEFAULT_CAPACITY rows. */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /** Creates an empty batch of the given number of rows. */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        ints = new int[n][];
+        fields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                fields[i] = new Field[capacity];
+        }
+        pages = new PageId[capacity];
+        slots = new int[capacity];
+        sel = new int[capacity];
+    }
+
+    private TupleBatch(TupleDesc td, TupleBatch from, int[] columns) {
+        this.td = td;
+        this.capacity = from.capacity;
+        ints = new int[columns.length][];
+        fields = new Field[columns.length][];
+        for (int i = 0; i < columns.length; i++) {
+            ints[i] = from.ints[columns[i]];
+            fields[i] = from.fields[columns[i]];
+        }
+        pages = from.pages;
+        slots = from.slots;
+        size = from.size;
+        sel = from.sel;
+        selected = from.selected;
+    }
+
+    /**
+     * @return a batch of the given columns of this one, sharing its vectors
+     *   and selection, which is valid for as long as this batch is
+     * @param td the TupleDesc of the columns
+     * @param columns the columns of this batch, in the order td has them
+     */
+    public TupleBatch project(TupleDesc td, int[] columns) {
+        return new TupleBatch(td, this, columns);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the most rows the batch can hold */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return a batch of the given, larger capacity with the rows and
+     *   selection of this one, for an operator to grow a batch it fills
+     *   rather than allocate it at its largest up front
+     */
+    TupleBatch grow(int capacity) {
+        TupleBatch b = new TupleBatch(td, capacity);
+        for (int c = 0; c < ints.length; c++) {
+            if (ints[c] != null)
+                System.arraycopy(ints[c], 0, b.ints[c], 0, size);
+            else
+                System.arraycopy(fields[c], 0, b.fields[c], 0, size);
+        }
+        System.arraycopy(pages, 0, b.pages, 0, size);
+        System.arraycopy(slots, 0, b.slots, 0, size);
+        System.arraycopy(sel, 0, b.sel, 0, selected);
+        b.size = size;
+        b.selected = selected;
+        return b;
+    }
+
+    /** @return the number of rows in the batch */
+    public int numRows() {
+        return selected;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Empties the batch, to fill it again. */
+    public void clear() {
+        size = 0;
+        selected = 0;
+    }
+
+    /** @return the index in the vectors of the ith row of the batch */
+    public int row(int i) {
+        return sel[i];
+    }
+
+    /** @return the vector of int column col; null if it is not an int column */
+    public int[] intColumn(int col) {
+        return ints[col];
+    }
+
+    /** @return the value of int column col at index row of the vectors */
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    /** @return column col at index row of the vectors, as a Field */
+    public Field getField(int col, int row) {
+        int[] v = ints[col];
+        return v != null ? new IntField(v[row]) : fields[col][row];
+    }
+
+    /** @return the ith row of the batch as a Tuple */
+    public Tuple getTuple(int i) {
+        int row = sel[i];
+        Tuple t = new Tuple(td);
+        for (int c = 0; c < ints.length; c++)
+            t.setField(c, getField(c, row));
+        if (pages[row] != null)
+            t.setRecordId(new RecordId(pages[row], slots[row]));
+        return t;
+    }
+
+    /**
+     * Starts a new row, selected, whose values the caller then sets.
+     *
+     * @param pid the page the row was read from, or null
+     * @param slot the slot on that page
+     * @return the index of the row in the vectors
+     */
+    int addRow(PageId pid, int slot) {
+        int row = size++;
+        pages[row] = pid;
+        slots[row] = slot;
+        sel[selected++] = row;
+        return row;
+    }
+
+    void setInt(int col, int row, int v) {
+        ints[col][row] = v;
+    }
+
+    void setField(int col, int row, Field f) {
+        int[] v = ints[col];
+        if (v != null)
+            v[row] = ((IntField) f).getValue();
+        else
+            fields[col][row] = f;
+    }
+
+    /** Adds a tuple of this batch's TupleDesc as a new row. */
+    public void addTuple(Tuple t) {
+        RecordId rid = t.getRecordId();
+        int row = rid != null ? addRow(rid.getPageId(), rid.getTupleNumber()) : addRow(null, 0);
+        for (int c = 0; c < ints.length; c++)
+            setField(c, row, t.getField(c));
+    }
+
+    /**
+     * Adds a row made of the fields of left followed by the columns of a row
+     * of right, as a join outputs them.
+     *
+     * @param left a tuple of the first columns of this batch
+     * @param right a batch of the remaining columns
+     * @param rightRow the index of the row in right's vectors
+     */
+    void addJoined(Tuple left, TupleBatch right, int rightRow) {
+        int row = addRow(null, 0);
+        int n = left.getTupleDesc().numFields();
+        for (int c = 0; c < n; c++)
+            setField(c, row, left.getField(c));
+        for (int c = n; c < ints.length; c++) {
+            int[] v = ints[c];
+            if (v != null)
+                v[row] = right.ints[c - n][rightRow];
+            else
+                fields[c][row] = right.fields[c - n][rightRow];
+        }
+    }
+}
@@ -9,6 +9,8 @@ import java.util.*;
 public class TupleDesc implements Serializable {
 
     private TDItem[] tds;
+    // where each field starts within a tuple; computed on first use
+    private transient int[] offsets;
 
     /**
      * A help class to facilitate organizing the information of each field
@@ -167,6 +169,23 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * @return the offset, in bytes, of the ith field from the start of a
+     *         tuple in the on-disk format
+     * @param i
+     *            index of the field. Must be a valid index.
+     */
+    public int getOffset(int i) {
+        int[] o = offsets;
+        if (o == null) {
+            o = new int[tds.length];
+            for (int j = 1; j < tds.length; j++)
+                o[j] = o[j - 1] + tds[j - 1].fieldType.getLen();
+            offsets = o;
+        }
+        return o[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
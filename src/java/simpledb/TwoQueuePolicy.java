@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Scan-resistant 2Q replacement (Johnson and Shasha, VLDB '94).
+ * <p>
+ * New pages enter a probationary FIFO, A1in, and are evicted from there
+ * first, so a one-off pass over a large table only ever displaces other
+ * probationary pages. When a page leaves A1in its id is remembered in a
+ * ghost queue, A1out; if it is requested again while it is still
+ * remembered, it is brought back straight into the hot LRU queue, Am.
+ * Hits on a page still in A1in do not promote it, since they usually come
+ * from the same burst of activity that brought the page in.
+ * <p>
+ * Sequential accesses never promote a page, so pages read by scans stay on
+ * probation even when the same table is scanned repeatedly.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private static final int A1IN = 1;
+    private static final int AM = 2;
+
+    private final int maxIn;
+    private final int maxOut;
+
+    // oldest probationary frame first
+    private final FrameList in = new FrameList();
+    // least recently used hot frame first
+    private final FrameList hot = new FrameList();
+    // ids of pages recently evicted from A1in, oldest first
+    private final LinkedHashSet<PageId> out = new LinkedHashSet<PageId>();
+
+    /**
+     * @param numPages the capacity of the pool; A1in is kept to a quarter of
+     *   it and A1out remembers half as many pages again.
+     */
+    public TwoQueuePolicy(int numPages) {
+        this.maxIn = Math.max(1, numPages / 4);
+        this.maxOut = Math.max(1, numPages / 2);
+    }
+
+    public void frameAdded(BufferFrame f, boolean sequential) {
+        if (out.remove(f.getId()) && !sequential) {
+            f.queue = AM;
+            hot.addLast(f);
+        } else {
+            f.queue = A1IN;
+            in.addLast(f);
+        }
+    }
+
+    public void frameAccessed(BufferFrame f, boolean sequential) {
+        if (f.queue == AM && !sequential)
+            hot.moveToLast(f);
+    }
+
+    public void frameRemoved(BufferFrame f) {
+        if (f.queue == A1IN) {
+            in.remove(f);
+            remember(f.getId());
+        } else if (f.queue == AM) {
+            hot.remove(f);
+        }
+        f.queue = 0;
+    }
+
+    public BufferFrame chooseVictim(boolean steal) {
+        BufferFrame victim = null;
+        if (in.size() > maxIn || hot.size() == 0)
+            victim = in.firstEvictable(steal);
+        if (victim == null)
+            victim = hot.firstEvictable(steal);
+        if (victim == null)
+            victim = in.firstEvictable(steal);
+        return victim;
+    }
+
+    private void remember(PageId pid) {
+        out.add(pid);
+        if (out.size() > maxOut) {
+            Iterator<PageId> it = out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+}
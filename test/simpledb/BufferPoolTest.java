@@ -0,0 +1,338 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+    private static final int PAGES = 8;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // two int columns fit 504 tuples on a page
+        hf = SystemTestUtil.createRandomHeapFile(2, PAGES * 504,
+                new HashMap<Integer, Integer>(), null);
+        assertEquals(PAGES, hf.numPages());
+        tid = new TransactionId();
+    }
+
+    private PageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * When the shard that needs room only has dirty pages, a clean page is
+     * evicted from another shard instead.
+     */
+    @Test public void evictsFromOtherShards() throws Exception {
+        BufferPool bp = new BufferPool(2, ReplacementPolicy.Kind.LRU, 2);
+        Page dirty = bp.getPage(tid, pid(0), Permissions.READ_WRITE);
+        dirty.markDirty(true, tid);
+
+        for (int i = 1; i < PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertSame(dirty, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+    }
+
+    /**
+     * The capacity is shared by all shards: once every frame holds a pinned
+     * page, no shard can bring in another.
+     */
+    @Test public void capacityIsSharedByShards() throws Exception {
+        BufferPool bp = new BufferPool(2, ReplacementPolicy.Kind.LRU, 2);
+        for (int i = 0; i < 2; i++)
+            bp.pinPage(tid, pid(i), Permissions.READ_ONLY, false);
+        for (int i = 2; i < PAGES; i++) {
+            try {
+                bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+                fail("expected the pool to be full of pinned pages");
+            } catch (DbException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * When every page is dirty, one is written out and evicted; the
+     * transaction's update is on disk, and in the log ahead of it.
+     */
+    @Test public void dirtyPagesAreStolen() throws Exception {
+        BufferPool bp = new BufferPool(2, ReplacementPolicy.Kind.LRU, 1);
+        HeapPage p = (HeapPage) bp.getPage(tid, pid(0), Permissions.READ_WRITE);
+        Tuple t = p.iterator().next();
+        p.deleteTuple(t);
+        p.markDirty(true, tid);
+        bp.getPage(tid, pid(1), Permissions.READ_WRITE).markDirty(true, tid);
+
+        for (int i = 2; i < PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertEquals(1, ((HeapPage) hf.readPage(pid(0))).getNumEmptySlots());
+        assertTrue(Database.getLogFile().readBeforeImages(tid).containsKey(pid(0)));
+    }
+
+    /**
+     * A transaction that aborts after some of its pages were stolen gets
+     * them back the way they were, from the log.
+     */
+    @Test public void abortUndoesStolenPages() throws Exception {
+        BufferPool bp = new BufferPool(2, ReplacementPolicy.Kind.LRU, 1);
+        HeapPage p = (HeapPage) bp.getPage(tid, pid(0), Permissions.READ_WRITE);
+        p.deleteTuple(p.iterator().next());
+        p.markDirty(true, tid);
+        assertEquals(1, bp.writeDirtyPages());
+        assertEquals(1, ((HeapPage) hf.readPage(pid(0))).getNumEmptySlots());
+
+        bp.transactionComplete(tid, false);
+        assertEquals(0, ((HeapPage) hf.readPage(pid(0))).getNumEmptySlots());
+        TransactionId tid2 = new TransactionId();
+        p = (HeapPage) bp.getPage(tid2, pid(0), Permissions.READ_ONLY);
+        assertEquals(0, p.getNumEmptySlots());
+    }
+
+    /**
+     * The background writer cleans dirty pages without waiting for commit.
+     */
+    @Test public void flusherWritesDirtyPages() throws Exception {
+        BufferPool bp = new BufferPool(2, ReplacementPolicy.Kind.LRU, 1);
+        HeapPage p = (HeapPage) bp.getPage(tid, pid(0), Permissions.READ_WRITE);
+        p.deleteTuple(p.iterator().next());
+        p.markDirty(true, tid);
+        bp.startFlusher(10);
+        try {
+            for (int i = 0; i < 500 && p.isDirty() != null; i++)
+                Thread.sleep(10);
+        } finally {
+            bp.stopFlusher();
+        }
+        assertNull(p.isDirty());
+        assertEquals(1, ((HeapPage) hf.readPage(pid(0))).getNumEmptySlots());
+    }
+
+    /**
+     * The background writer outlives rounds whose writes fail, and cleans
+     * the page once the file can be written again.
+     */
+    @Test public void flusherSurvivesWriteErrors() throws Exception {
+        final AtomicInteger failures = new AtomicInteger(2);
+        HeapFile failing = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            public void writePages(java.util.List<Page> pages) throws java.io.IOException {
+                if (failures.getAndDecrement() > 0)
+                    throw new java.io.IOException("no space left on device");
+                super.writePages(pages);
+            }
+        };
+        Database.getCatalog().addTable(failing, SystemTestUtil.getUUID());
+        BufferPool bp = new BufferPool(2, ReplacementPolicy.Kind.LRU, 1);
+        HeapPage p = (HeapPage) bp.getPage(tid, pid(0), Permissions.READ_WRITE);
+        p.deleteTuple(p.iterator().next());
+        p.markDirty(true, tid);
+        bp.startFlusher(10);
+        try {
+            for (int i = 0; i < 500 && p.isDirty() != null; i++)
+                Thread.sleep(10);
+        } finally {
+            bp.stopFlusher();
+        }
+        assertTrue(failures.get() < 0);
+        assertNull(p.isDirty());
+        assertEquals(1, ((HeapPage) hf.readPage(pid(0))).getNumEmptySlots());
+    }
+
+    /**
+     * A pinned page stays in the pool, however many other pages pass
+     * through it, until it is unpinned as many times as it was pinned.
+     */
+    @Test public void pinnedPagesAreNotEvicted() throws Exception {
+        BufferPool bp = new BufferPool(2, ReplacementPolicy.Kind.LRU, 1);
+        Page pinned = bp.pinPage(tid, pid(0), Permissions.READ_ONLY, false);
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY, false);
+        for (int i = 1; i < PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertSame(pinned, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+
+        bp.unpinPage(tid, pid(0));
+        for (int i = 1; i < PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertSame(pinned, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+
+        bp.unpinPage(tid, pid(0));
+        for (int i = 1; i < PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertNotSame(pinned, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+    }
+
+    /**
+     * Pins a transaction never gave back are dropped when it completes.
+     */
+    @Test public void transactionCompleteDropsPins() throws Exception {
+        BufferPool bp = new BufferPool(2, ReplacementPolicy.Kind.LRU, 1);
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY, false);
+        bp.pinPage(tid, pid(1), Permissions.READ_ONLY, false);
+        try {
+            bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+            fail("expected every frame to be pinned");
+        } catch (DbException e) {
+            // expected
+        }
+
+        bp.transactionComplete(tid);
+        TransactionId tid2 = new TransactionId();
+        for (int i = 0; i < PAGES; i++)
+            bp.getPage(tid2, pid(i), Permissions.READ_ONLY);
+    }
+
+    /**
+     * A scan keeps only the page it is reading pinned, so it runs through a
+     * pool much smaller than the table.
+     */
+    @Test public void scanPinsOnePageAtATime() throws Exception {
+        Database.resetBufferPool(2);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(PAGES * 504, count);
+
+        // nothing is left pinned: with one frame taken by a dirty page,
+        // the other must still be free to cycle through the table
+        BufferPool bp = Database.getBufferPool();
+        bp.getPage(tid, pid(0), Permissions.READ_WRITE).markDirty(true, tid);
+        for (int i = 1; i < PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+    }
+
+    /**
+     * A prefetch reads a page only for a transaction that holds a lock on
+     * it, and a page that has been prefetched is not read again.
+     */
+    @Test public void prefetchNeedsALock() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        HeapFile counted = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            public Page readPage(PageId pid) {
+                reads.incrementAndGet();
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(counted, SystemTestUtil.getUUID());
+        BufferPool bp = new BufferPool(PAGES, ReplacementPolicy.Kind.LRU, 1, false);
+
+        assertFalse(bp.prefetchPage(tid, pid(0)).get());
+        assertEquals(0, reads.get());
+
+        bp.lockTable(tid, hf.getId(), Permissions.READ_ONLY);
+        for (int i = 0; i < PAGES; i++)
+            assertTrue(bp.prefetchPage(tid, pid(i)).get());
+        for (int i = 0; i < PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        assertEquals(PAGES, reads.get());
+    }
+
+    /**
+     * A prefetch only takes a frame that is free or holds a clean page.
+     */
+    @Test public void prefetchDoesNotStealOrUnpin() throws Exception {
+        BufferPool bp = new BufferPool(2, ReplacementPolicy.Kind.LRU, 1);
+        bp.lockTable(tid, hf.getId(), Permissions.READ_ONLY);
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY, false);
+        bp.getPage(tid, pid(1), Permissions.READ_WRITE).markDirty(true, tid);
+        assertFalse(bp.prefetchPage(tid, pid(2)).get());
+
+        bp.unpinPage(tid, pid(0));
+        assertTrue(bp.prefetchPage(tid, pid(2)).get());
+        assertNotNull(bp.getPage(tid, pid(1), Permissions.READ_ONLY).isDirty());
+    }
+
+    /**
+     * A scan reads ahead within its window, and every tuple still comes out
+     * once, in order.
+     */
+    @Test public void scanReadsAhead() throws Exception {
+        Database.resetBufferPool(PAGES);
+        BufferPool bp = Database.getBufferPool();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        assertTrue(bp.prefetchPage(tid, pid(ReadAhead.MIN_WINDOW)).get());
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(PAGES * 504, count);
+    }
+
+    private static ArrayList<Tuple> tuples(Page p) {
+        ArrayList<Tuple> ts = new ArrayList<Tuple>();
+        Iterator<Tuple> it = ((HeapPage) p).iterator();
+        while (it.hasNext())
+            ts.add(it.next());
+        return ts;
+    }
+
+    /**
+     * An off-heap pool reads pages into its arena; a page that is evicted
+     * while still referenced keeps its contents after its frame is reused.
+     */
+    @Test public void offHeapPagesSurviveEviction() throws Exception {
+        BufferPool bp = new BufferPool(2, ReplacementPolicy.Kind.LRU, 1, true);
+        Page first = bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        ArrayList<Tuple> before = tuples(first);
+        assertEquals(504, before.size());
+
+        for (int i = 1; i < PAGES; i++)
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        ArrayList<Tuple> after = tuples(first);
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++)
+            assertEquals(before.get(i).toString(), after.get(i).toString());
+        assertNotSame(first, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+    }
+
+    /**
+     * Updates made to a page in an off-heap frame are written back on commit.
+     */
+    @Test public void offHeapPagesAreFlushed() throws Exception {
+        BufferPool bp = new BufferPool(2, ReplacementPolicy.Kind.LRU, 1, true);
+        HeapPage p = (HeapPage) bp.getPage(tid, pid(0), Permissions.READ_WRITE);
+        Tuple t = p.iterator().next();
+        p.deleteTuple(t);
+        p.markDirty(true, tid);
+        bp.transactionComplete(tid);
+
+        HeapPage onDisk = (HeapPage) hf.readPage(pid(0));
+        assertEquals(1, onDisk.getNumEmptySlots());
+        assertFalse(onDisk.isSlotUsed(t.getRecordId().getTupleNumber()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -0,0 +1,57 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  /**
+   * @return a relation of two int columns, whose first column is 0 to
+   *   rows - 1
+   */
+  private static OpIterator keys(int rows) {
+    int[] data = new int[2 * rows];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = i;
+      data[2 * i + 1] = -i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /**
+   * An outer relation just over the memory the join may use sends only the
+   * partitions it takes to fit to disk, and the inner tuples of the others
+   * still probe the table
+   */
+  @Test public void justOverMemory() throws Exception {
+    // one page of memory holds 512 outer tuples of two ints
+    Database.resetBufferPool(1);
+    int rows = 600;
+    HashEquiJoin op = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        keys(rows), keys(rows));
+    op.open();
+    int joined = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(2));
+      joined++;
+    }
+    assertEquals(rows, joined);
+    assertTrue(op.probeTuplesSpilled() > 0);
+    assertTrue(op.probeTuplesSpilled() < rows / 4);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static File textFile(String text) throws IOException {
+        File f = File.createTempFile("encoder", ".txt");
+        f.deleteOnExit();
+        try (FileWriter w = new FileWriter(f)) {
+            w.write(text);
+        }
+        return f;
+    }
+
+    private static File datFile() throws IOException {
+        File f = File.createTempFile("encoder", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /** @return the tuples of a converted file, in order, as strings */
+    private static ArrayList<String> read(File dat, Type[] types) throws Exception {
+        HeapFile hf = new HeapFile(dat, new TupleDesc(types));
+        Database.getCatalog().addTable(hf, dat.getName());
+        ArrayList<String> rows = new ArrayList<String>();
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < types.length; i++) {
+                if (i > 0)
+                    sb.append(',');
+                sb.append(t.getField(i));
+            }
+            rows.add(sb.toString());
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * An input of many chunks, encoded by several threads, comes out whole
+     * and in order, in full pages; blank lines and "\r\n" line ends are
+     * skipped over.
+     */
+    @Test public void manyChunks() throws Exception {
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+        int rows = HeapFileEncoder.PAGES_PER_CHUNK * 504 * 2 + 37;
+        Random rand = new Random(0);
+        StringBuilder text = new StringBuilder();
+        ArrayList<String> expected = new ArrayList<String>();
+        for (int i = 0; i < rows; i++) {
+            int a = rand.nextInt(), b = -i;
+            text.append(a).append(',').append(b).append(i % 3 == 0 ? "\r\n" : "\n");
+            if (i % 1000 == 0)
+                text.append("\n");
+            expected.add(a + "," + b);
+        }
+        File dat = datFile();
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        HeapFileEncoder.convert(textFile(text.toString()), dat,
+                BufferPool.getPageSize(), 2, types, ',', 4, new PrintStream(report));
+
+        assertEquals((rows + 503) / 504, dat.length() / BufferPool.getPageSize());
+        assertEquals(expected, read(dat, types));
+        assertTrue(report.toString().contains("(100%)"));
+    }
+
+    /** Strings are cut to STRING_LEN, and the last line needs no '\n'. */
+    @Test public void stringsAndLastLine() throws Exception {
+        Type[] types = { Type.STRING_TYPE, Type.INT_TYPE };
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN + 10; i++)
+            longString.append('x');
+        File dat = datFile();
+        HeapFileEncoder.convert(textFile("ab | 1\n" + longString + "|-2"), dat,
+                BufferPool.getPageSize(), 2, types, '|', 2, null);
+
+        ArrayList<String> rows = read(dat, types);
+        assertEquals(2, rows.size());
+        assertEquals("ab,1", rows.get(0));
+        assertEquals(longString.substring(0, Type.STRING_LEN) + ",-2", rows.get(1));
+    }
+
+    /** An empty input still makes a table of one empty page. */
+    @Test public void emptyInput() throws Exception {
+        File dat = datFile();
+        HeapFileEncoder.convert(textFile(""), dat, BufferPool.getPageSize(), 1);
+        assertEquals(BufferPool.getPageSize(), dat.length());
+    }
+
+    /** A line with the wrong number of fields fails the conversion. */
+    @Test(expected = IOException.class) public void malformedLine() throws Exception {
+        HeapFileEncoder.convert(textFile("1,2\n3\n"), datFile(),
+                BufferPool.getPageSize(), 2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
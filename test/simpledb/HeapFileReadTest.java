@@ -77,6 +77,51 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() through a memory mapping, including
+     * a page added to the file after it was first mapped.
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertArrayEquals(hf.readPage(pid).getPageData(),
+                mapped.readPage(pid).getPageData());
+
+        HeapPage full = new HeapPage(new HeapPageId(hf.getId(), 1),
+                HeapPage.createEmptyPageData());
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(7));
+        t.setField(1, new IntField(8));
+        full.insertTuple(t);
+        hf.writePage(full);
+
+        HeapPage page = (HeapPage) mapped.readPage(full.getId());
+        assertEquals(full.getNumEmptySlots(), page.getNumEmptySlots());
+        assertEquals("7\t8", page.iterator().next().toString());
+        mapped.close();
+    }
+
+    /**
+     * Reading each page as it is appended remaps the file only when it has
+     * doubled in size, and reads the pages past the mapping all the same.
+     */
+    @Test
+    public void appendsRemapRarely() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        for (int pgNo = 1; pgNo <= 64; pgNo++) {
+            HeapPage p = new HeapPage(new HeapPageId(hf.getId(), pgNo),
+                    HeapPage.createEmptyPageData());
+            p.insertTuple(Utility.getHeapTuple(pgNo, 2));
+            mapped.writePage(p);
+            HeapPage read = (HeapPage) mapped.readPage(p.getId());
+            assertEquals("" + pgNo + "\t" + pgNo, read.iterator().next().toString());
+        }
+        // mapped at 2, 4, 8, 16, 32 and 64 pages
+        assertTrue(mapped.remaps() <= 7);
+        mapped.close();
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -5,6 +5,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
+
+import java.io.File;
+
 import junit.framework.JUnit4TestAdapter;
 import simpledb.systemtest.SystemTestUtil;
 
@@ -44,6 +47,102 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.writePages(): pages handed over out of order,
+     * with a gap between two runs, all land where they belong.
+     */
+    @Test public void writePages() throws Exception {
+        java.util.ArrayList<Page> pages = new java.util.ArrayList<Page>();
+        for (int pgNo : new int[] { 4, 1, 0, 3, 2, 6 }) {
+            HeapPage p = new HeapPage(new HeapPageId(empty.getId(), pgNo),
+                    HeapPage.createEmptyPageData());
+            p.insertTuple(Utility.getHeapTuple(pgNo, 2));
+            pages.add(p);
+        }
+        empty.writePages(pages);
+        empty.force();
+
+        assertEquals(7, empty.numPages());
+        for (int pgNo = 0; pgNo < 7; pgNo++) {
+            HeapPage p = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), pgNo));
+            if (pgNo == 5) {
+                assertFalse(p.iterator().hasNext());
+            } else {
+                assertEquals(Utility.getHeapTuple(pgNo, 2).toString(),
+                        p.iterator().next().toString());
+            }
+        }
+    }
+
+    /** Fills the first n pages of empty, and commits. */
+    private void fillPages(int n) throws Exception {
+        TransactionId t = new TransactionId();
+        for (int i = 0; i < n * 504; ++i)
+            empty.insertTuple(t, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(t);
+    }
+
+    /**
+     * An insert goes straight to the page with room, without locking the
+     * full pages ahead of it.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        fillPages(3);
+        assertEquals(3, empty.numPages());
+        TransactionId t = new TransactionId();
+        HeapPageId pid1 = new HeapPageId(empty.getId(), 1);
+        Tuple victim = ((HeapPage) Database.getBufferPool().getPage(t, pid1,
+                Permissions.READ_WRITE)).iterator().next();
+        empty.deleteTuple(t, victim);
+        Database.getBufferPool().transactionComplete(t);
+        assertFalse(empty.getFreeSpaceMap().isFull(1));
+
+        empty.insertTuple(tid, Utility.getHeapTuple(7, 2));
+        assertEquals(3, empty.numPages());
+        BufferPool bp = Database.getBufferPool();
+        assertFalse(bp.holdsLock(tid, new HeapPageId(empty.getId(), 0)));
+        assertTrue(bp.holdsLock(tid, pid1));
+        assertTrue(empty.getFreeSpaceMap().isFull(1));
+    }
+
+    /**
+     * A page filled by a transaction that aborts has room again.
+     */
+    @Test public void abortedInsertLeavesRoom() throws Exception {
+        TransactionId t = new TransactionId();
+        for (int i = 0; i < 504; ++i)
+            empty.insertTuple(t, Utility.getHeapTuple(i, 2));
+        assertTrue(empty.getFreeSpaceMap().isFull(0));
+        Database.getBufferPool().transactionComplete(t, false);
+        assertFalse(empty.getFreeSpaceMap().isFull(0));
+
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(1, empty.numPages());
+    }
+
+    /**
+     * The map is saved next to the data file when the file is closed, not
+     * on every force, and used by the next HeapFile opened on it unless the
+     * data file changed since.
+     */
+    @Test public void freeSpaceMapIsSaved() throws Exception {
+        fillPages(2);
+        empty.force();
+        File dat = empty.getFile();
+        assertFalse(FreeSpaceMap.mapFile(dat).exists());
+        empty.close();
+        assertTrue(FreeSpaceMap.mapFile(dat).exists());
+
+        HeapFile reopened = new HeapFile(dat, empty.getTupleDesc());
+        assertTrue(reopened.getFreeSpaceMap().isFull(1));
+        assertEquals(2, reopened.getFreeSpaceMap().nextWithRoom(0));
+
+        // rewritten behind the map's back
+        assertTrue(dat.setLastModified(dat.lastModified() - 10000));
+        reopened = new HeapFile(dat, empty.getTupleDesc());
+        assertFalse(reopened.getFreeSpaceMap().isFull(1));
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
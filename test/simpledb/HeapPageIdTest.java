@@ -51,6 +51,16 @@ public class HeapPageIdTest extends SimpleDbTestBase {
         assertEquals(code2, pid.hashCode());
     }
 
+    /**
+     * Consecutive pages of a table don't share a hash code.
+     */
+    @Test public void hashCodeSpread() {
+        java.util.HashSet<Integer> codes = new java.util.HashSet<Integer>();
+        for (int i = 0; i < 1000; i++)
+            codes.add(new HeapPageId(0x5eed1234, i).hashCode());
+        assertEquals(1000, codes.size());
+    }
+
     /**
      * Unit test for HeapPageId.equals()
      */
@@ -120,6 +120,81 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Tuples decode their fields from the page lazily; a tuple keeps the
+     * values it was read with even if its slot is rewritten before the
+     * fields are asked for.
+     */
+    @Test public void lazyTupleKeepsOldSlot() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Tuple old = page.iterator().next();
+        page.deleteTuple(old);
+        page.insertTuple(Utility.getHeapTuple(new int[] { -1, -2 }));
+        assertTrue(page.isSlotUsed(0));
+
+        assertEquals(new IntField(EXAMPLE_VALUES[0][0]), old.getField(0));
+        assertEquals(new IntField(EXAMPLE_VALUES[0][1]), old.getField(1));
+        Tuple now = page.iterator().next();
+        assertEquals(new IntField(-1), now.getField(0));
+        assertEquals(new IntField(-2), now.getField(1));
+    }
+
+    /**
+     * A tuple read from a page over a pool frame still reads its values
+     * after the page is detached and the frame reused.
+     */
+    @Test public void lazyTupleSurvivesDetach() throws Exception {
+        java.nio.ByteBuffer frame = java.nio.ByteBuffer.allocateDirect(BufferPool.getPageSize());
+        frame.put(EXAMPLE_DATA);
+        HeapPage page = new HeapPage(pid, frame);
+        Tuple t = page.iterator().next();
+        page.detach();
+        for (int i = 0; i < frame.capacity(); i++)
+            frame.put(i, (byte) 0xff);
+
+        assertEquals(new IntField(EXAMPLE_VALUES[0][0]), t.getField(0));
+        assertEquals(new IntField(EXAMPLE_VALUES[0][1]), t.getField(1));
+        assertEquals(EXAMPLE_VALUES[0][0] + "\t" + EXAMPLE_VALUES[0][1], t.toString());
+    }
+
+    /**
+     * Tuples decoding on another thread while their page is detached and
+     * the frame reused never see the frame's new bytes.
+     */
+    @Test public void lazyTupleDecodesDuringDetach() throws Exception {
+        final java.nio.ByteBuffer frame = java.nio.ByteBuffer.allocateDirect(BufferPool.getPageSize());
+        final int rounds = 2000;
+        final java.util.concurrent.SynchronousQueue<Tuple> handed =
+                new java.util.concurrent.SynchronousQueue<Tuple>();
+        final int[] wrong = new int[1];
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    for (int r = 0; r < rounds; r++) {
+                        Tuple t = handed.take();
+                        for (int i = 0; i < 2; i++)
+                            if (!t.getField(i).equals(new IntField(EXAMPLE_VALUES[0][i])))
+                                wrong[0]++;
+                    }
+                } catch (InterruptedException e) {
+                    // done
+                }
+            }
+        };
+        reader.start();
+        for (int r = 0; r < rounds; r++) {
+            frame.clear();
+            frame.put(EXAMPLE_DATA);
+            HeapPage page = new HeapPage(pid, frame);
+            handed.put(page.iterator().next());
+            page.detach();
+            for (int i = 0; i < frame.capacity(); i++)
+                frame.put(i, (byte) 0xff);
+        }
+        reader.join();
+        assertEquals(0, wrong[0]);
+    }
+
     /**
      * JUnit suite target
      */
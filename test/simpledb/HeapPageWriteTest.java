@@ -1,6 +1,8 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -126,6 +128,117 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Free slots are found, counted and skipped a header word at a time;
+     * check the slots around the word boundaries and the last one.
+     */
+    @Test public void slotsAcrossWords() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        assertEquals(504, slots);
+        LinkedList<Tuple> tuples = new LinkedList<Tuple>();
+        for (int i = 0; i < slots; i++) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            page.insertTuple(t);
+            assertEquals(i, t.getRecordId().getTupleNumber());
+            tuples.add(t);
+        }
+        assertEquals(0, page.getNumEmptySlots());
+
+        int[] freed = { 63, 64, 127, 128, 503 };
+        for (int i = freed.length - 1; i >= 0; i--)
+            page.deleteTuple(tuples.get(freed[i]));
+        assertEquals(freed.length, page.getNumEmptySlots());
+        int n = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); n++) {
+            int slot = it.next().getRecordId().getTupleNumber();
+            for (int f : freed)
+                assertTrue(slot != f);
+        }
+        assertEquals(slots - freed.length, n);
+
+        for (int f : freed) {
+            Tuple t = Utility.getHeapTuple(f, 2);
+            page.insertTuple(t);
+            assertEquals(f, t.getRecordId().getTupleNumber());
+        }
+        assertEquals(0, page.getNumEmptySlots());
+    }
+
+    /**
+     * The before image is copied when the page is first changed, not when
+     * it is read, and again only after setBeforeImage.
+     */
+    @Test public void beforeImageOnFirstChange() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        byte[] original = page.getPageData();
+        assertNull(page.oldData);
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        byte[] once = page.oldData;
+        page.deleteTuple(page.iterator().next());
+        assertTrue(once == page.oldData);
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+
+        // a before image can be changed without touching the page's
+        HeapPage before = page.getBeforeImage();
+        before.insertTuple(Utility.getHeapTuple(2, 2));
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        assertNull(page.oldData);
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * copyPageData copies the same bytes as getPageData.
+     */
+    @Test public void copyPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        java.nio.ByteBuffer b = java.nio.ByteBuffer.allocate(BufferPool.getPageSize() + 1);
+        b.put((byte) 7);
+        page.copyPageData(b);
+        assertEquals(BufferPool.getPageSize() + 1, b.position());
+        byte[] copied = new byte[BufferPool.getPageSize()];
+        b.position(1);
+        b.get(copied);
+        assertArrayEquals(page.getPageData(), copied);
+    }
+
+    /**
+     * A tuple of int and string fields is encoded into its slot with the
+     * same bytes as serializing each field to a stream, over whatever the
+     * slot held before, and decodes back to the same values.
+     */
+    @Test public void encodesStringFields() throws Exception {
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        Database.getCatalog().addTable(new SkeletonFile(-2, new TupleDesc(types)), SystemTestUtil.getUUID());
+        TupleDesc td = new TupleDesc(types);
+        HeapPageId spid = new HeapPageId(-2, 0);
+        byte[] junk = new byte[BufferPool.getPageSize()];
+        java.util.Arrays.fill(junk, (byte) 0x55);
+        junk[0] = 0; // every slot free
+        HeapPage page = new HeapPage(spid, junk);
+
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-7));
+        t.setField(1, new StringField("hello", Type.STRING_LEN));
+        page.insertTuple(t);
+
+        java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
+        java.io.DataOutputStream dos = new java.io.DataOutputStream(baos);
+        t.getField(0).serialize(dos);
+        t.getField(1).serialize(dos);
+        byte[] slot = new byte[td.getSize()];
+        System.arraycopy(page.getPageData(), (page.numSlots + 7) / 8, slot, 0, slot.length);
+        assertArrayEquals(baos.toByteArray(), slot);
+
+        Tuple read = page.iterator().next();
+        assertEquals(-7, ((IntField) read.getField(0)).getValue());
+        assertEquals("hello", read.getField(1).toString());
+    }
+
     /**
      * JUnit suite target
      */
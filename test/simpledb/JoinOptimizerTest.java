@@ -621,4 +621,68 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * A nested loops join reads the right-hand side once per block of
+     * left-hand tuples that fits in the buffer pool, not once per tuple.
+     */
+    @Test
+    public void blockNestedLoopCostTest() throws ParsingException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c1 <> t2.c2;"),
+                new Vector<LogicalJoinNode>());
+        LogicalJoinNode node = new LogicalJoinNode("t1", "t2", "c1", "c2",
+                Predicate.Op.NOT_EQUALS);
+        int block = Join.blockTuples(Database.getCatalog().getTupleDesc(tableId1));
+        Assert.assertEquals(100.0 + 10 * 100.0 + 10.0 * block * 5,
+                jo.estimateJoinCost(node, 10 * block, 5, 100.0, 100.0), 1e-6);
+        Assert.assertEquals(100.0 + 100.0 + 10 * 5,
+                jo.estimateJoinCost(node, 10, 5, 100.0, 100.0), 1e-6);
+    }
+
+    /**
+     * A range join of two tables is done by a sort-merge join, which reads
+     * each of them once, rather than by a nested loops join.
+     */
+    @Test
+    public void sortMergeRangeJoinTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        final int IO_COST = 103;
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        TransactionId tid = new TransactionId();
+
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 1000, null, null, "c");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 1000, null, null, "c");
+        Database.getCatalog().addTable(a, "a");
+        Database.getCatalog().addTable(b, "b");
+        stats.put("a", new TableStats(a.getId(), IO_COST));
+        stats.put("b", new TableStats(b.getId(), IO_COST));
+        filterSelectivities.put("a", 1.0);
+        filterSelectivities.put("b", 1.0);
+        nodes.add(new LogicalJoinNode("a", "b", "c1", "c1",
+                Predicate.Op.LESS_THAN));
+
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM a, b WHERE a.c1 < b.c1;"), nodes);
+        Vector<LogicalJoinNode> result = j.orderJoins(stats,
+                filterSelectivities, false);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(LogicalJoinNode.JoinType.SORT_MERGE,
+                result.get(0).jt);
+
+        // a side that comes sorted already costs less
+        LogicalJoinNode n = result.get(0);
+        double unsorted = j.estimateSortMergeJoinCost(n, 1000, 1000, 5.0, 5.0,
+                false, false);
+        Assert.assertTrue(j.estimateSortMergeJoinCost(n, 1000, 1000, 5.0, 5.0,
+                true, false) < unsorted);
+        Assert.assertTrue(unsorted < j.estimateJoinCost(n, 1000, 1000, 5.0, 5.0));
+    }
 }
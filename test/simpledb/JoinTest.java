@@ -3,6 +3,11 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -105,6 +110,93 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() with an outer relation of several blocks,
+   * for each operator, against the pairs that satisfy it
+   */
+  @Test public void severalBlocks() throws Exception {
+    // one page of pool: blocks of 4096 / 8 = 512 outer tuples
+    Database.resetBufferPool(1);
+    Random rand = new Random(0);
+    int[] left = new int[2 * 1500];
+    int[] right = new int[2 * 100];
+    for (int i = 0; i < left.length; i++)
+      left[i] = rand.nextInt(100);
+    for (int i = 0; i < right.length; i++)
+      right[i] = rand.nextInt(100);
+    for (Predicate.Op op : Predicate.Op.values()) {
+      ArrayList<String> expected = new ArrayList<String>();
+      for (int l = 0; l < left.length; l += 2)
+        for (int r = 0; r < right.length; r += 2)
+          if (new IntField(left[l]).compare(op, new IntField(right[r + 1])))
+            expected.add(left[l] + "\t" + left[l + 1] + "\t" + right[r] + "\t" + right[r + 1]);
+      Collections.sort(expected);
+
+      Join join = new Join(new JoinPredicate(0, op, 1),
+          TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right));
+      ArrayList<String> actual = new ArrayList<String>();
+      join.open();
+      while (join.hasNext())
+        actual.add(join.next().toString());
+      join.close();
+      Collections.sort(actual);
+      assertEquals(op.toString(), expected, actual);
+    }
+  }
+
+  /**
+   * The block grows from TupleBatch.DEFAULT_CAPACITY tuples up to as many
+   * as the pool holds, and is reused when the join is opened again
+   */
+  @Test public void growsBlock() throws Exception {
+    // four pages of pool: blocks of up to 4 * 4096 / 8 = 2048 outer tuples
+    Database.resetBufferPool(4);
+    int[] left = new int[2 * 3000];
+    for (int i = 0; i < 3000; i++) {
+      left[2 * i] = i;
+      left[2 * i + 1] = -i;
+    }
+    int[] right = new int[2 * 500];
+    for (int i = 0; i < 500; i++)
+      right[2 * i + 1] = 6 * i;
+    Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+        TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right));
+    for (int run = 0; run < 2; run++) {
+      join.open();
+      int count = 0;
+      while (join.hasNext()) {
+        Tuple t = join.next();
+        assertEquals(t.getField(0), t.getField(3));
+        count++;
+      }
+      join.close();
+      assertEquals(500, count);
+    }
+  }
+
+  /**
+   * Unit test for Join.getNext() on a string join field
+   */
+  @Test public void stringJoin() throws Exception {
+    OpIterator names1 = TestUtil.createTupleList(2,
+        new Object[] { 1, "b", 2, "a", 3, "c" });
+    OpIterator names2 = TestUtil.createTupleList(1,
+        new Object[] { "b", "c" });
+    Join op = new Join(new JoinPredicate(1, Predicate.Op.LESS_THAN, 0), names1, names2);
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+        new Object[] { 2, "a", "b",
+                       2, "a", "c",
+                       1, "b", "c" }), op);
+    op.rewind();
+    int n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    assertEquals(3, n);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,281 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    private LockManager lm;
+    private PageId pid;
+    private TransactionId tid1, tid2, tid3;
+
+    /** Acquires a lock from its own thread, so the test can watch it block. */
+    private class Grabber extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired;
+        volatile Exception error;
+
+        Grabber(TransactionId tid, Permissions perm) {
+            this(tid, LockManagerTest.this.pid, perm);
+        }
+
+        Grabber(TransactionId tid, PageId pid, Permissions perm) {
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            start();
+        }
+
+        public void run() {
+            try {
+                lm.acquireLock(tid, pid, perm);
+                acquired = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        /** Waits up to TIMEOUT for the thread to finish. */
+        Grabber finish() throws InterruptedException {
+            join(TIMEOUT);
+            return this;
+        }
+    }
+
+    @Before public void setUp() {
+        lm = new LockManager(10 * 1000);
+        pid = new HeapPageId(1, 0);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /**
+     * A release hands the lock straight to the transaction waiting for it.
+     */
+    @Test public void releaseWakesWaiter() throws Exception {
+        lm.acquireLock(tid1, pid, Permissions.READ_WRITE);
+        Grabber g = new Grabber(tid2, Permissions.READ_ONLY).finish();
+        assertFalse(g.acquired);
+
+        lm.releaseLock(tid1, pid);
+        assertTrue(g.finish().acquired);
+        assertTrue(lm.holdsLock(tid2, pid));
+    }
+
+    /**
+     * Readers arriving after a waiting writer queue up behind it instead of
+     * sharing the lock with the current readers.
+     */
+    @Test public void writerNotStarvedByReaders() throws Exception {
+        lm.acquireLock(tid1, pid, Permissions.READ_ONLY);
+        Grabber writer = new Grabber(tid2, Permissions.READ_WRITE).finish();
+        Grabber reader = new Grabber(tid3, Permissions.READ_ONLY).finish();
+        assertFalse(writer.acquired);
+        assertFalse(reader.acquired);
+
+        lm.releaseLock(tid1, pid);
+        assertTrue(writer.finish().acquired);
+        assertFalse(reader.finish().acquired);
+
+        lm.releaseLock(tid2, pid);
+        assertTrue(reader.finish().acquired);
+    }
+
+    /**
+     * An upgrade is granted before writers that were already waiting.
+     */
+    @Test public void upgradeJumpsQueue() throws Exception {
+        lm.acquireLock(tid1, pid, Permissions.READ_ONLY);
+        lm.acquireLock(tid2, pid, Permissions.READ_ONLY);
+        Grabber writer = new Grabber(tid3, Permissions.READ_WRITE).finish();
+        Grabber upgrade = new Grabber(tid1, Permissions.READ_WRITE).finish();
+        assertFalse(writer.acquired);
+        assertFalse(upgrade.acquired);
+
+        lm.releaseLock(tid2, pid);
+        assertTrue(upgrade.finish().acquired);
+        assertFalse(writer.finish().acquired);
+    }
+
+    /**
+     * A request that waits past the timeout aborts its transaction.
+     */
+    @Test(expected=TransactionAbortedException.class)
+    public void timeoutAborts() throws Exception {
+        lm.setTimeout(20);
+        lm.acquireLock(tid1, pid, Permissions.READ_WRITE);
+        lm.acquireLock(tid2, pid, Permissions.READ_ONLY);
+    }
+
+    /**
+     * Completing a transaction cancels the requests it still has waiting,
+     * and leaves no trace of them in the queue.
+     */
+    @Test public void releaseTransactionLocksCancelsWaits() throws Exception {
+        lm.acquireLock(tid1, pid, Permissions.READ_WRITE);
+        Grabber g = new Grabber(tid2, Permissions.READ_WRITE).finish();
+        lm.releaseTransactionLocks(tid2);
+        g.finish();
+        assertFalse(g.acquired);
+        assertNotNull(g.error);
+
+        lm.releaseTransactionLocks(tid1);
+        Grabber g3 = new Grabber(tid3, Permissions.READ_WRITE).finish();
+        assertTrue(g3.acquired);
+        assertNull(g3.error);
+    }
+
+    /**
+     * Completing a transaction releases exactly the locks it held, including
+     * ones that were upgraded or released and reacquired along the way.
+     */
+    @Test public void releaseTransactionLocksReleasesOwnLocks() throws Exception {
+        PageId pid2 = new HeapPageId(1, 1);
+        PageId pid3 = new HeapPageId(1, 2);
+        lm.acquireLock(tid1, pid, Permissions.READ_ONLY);
+        lm.acquireLock(tid1, pid, Permissions.READ_WRITE);
+        lm.acquireLock(tid1, pid2, Permissions.READ_ONLY);
+        lm.releaseLock(tid1, pid2);
+        lm.acquireLock(tid1, pid2, Permissions.READ_ONLY);
+        lm.acquireLock(tid2, pid2, Permissions.READ_ONLY);
+        lm.acquireLock(tid2, pid3, Permissions.READ_WRITE);
+
+        lm.releaseTransactionLocks(tid1);
+        assertFalse(lm.holdsLock(tid1, pid));
+        assertFalse(lm.holdsLock(tid1, pid2));
+        assertTrue(lm.holdsLock(tid2, pid2));
+        assertTrue(lm.holdsLock(tid2, pid3));
+
+        lm.acquireLock(tid3, pid, Permissions.READ_WRITE);
+        lm.releaseTransactionLocks(tid2);
+        lm.acquireLock(tid3, pid2, Permissions.READ_WRITE);
+        lm.acquireLock(tid3, pid3, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Unit test for LockMode: compatibility and upgrades.
+     */
+    @Test public void lockModes() {
+        assertTrue(LockMode.IS.isCompatibleWith(LockMode.SIX));
+        assertTrue(LockMode.IX.isCompatibleWith(LockMode.IX));
+        assertFalse(LockMode.IX.isCompatibleWith(LockMode.S));
+        assertFalse(LockMode.SIX.isCompatibleWith(LockMode.IX));
+        assertFalse(LockMode.X.isCompatibleWith(LockMode.IS));
+
+        assertEquals(LockMode.IX, LockMode.IS.combine(LockMode.IX));
+        assertEquals(LockMode.SIX, LockMode.S.combine(LockMode.IX));
+        assertEquals(LockMode.SIX, LockMode.SIX.combine(LockMode.S));
+        assertEquals(LockMode.X, LockMode.IX.combine(LockMode.X));
+        assertTrue(LockMode.SIX.covers(LockMode.IS));
+        assertFalse(LockMode.S.covers(LockMode.IX));
+    }
+
+    /**
+     * A shared table lock lets other transactions read pages of the table,
+     * but not write them, and covers every page for its holder.
+     */
+    @Test public void tableLockCoversPages() throws Exception {
+        PageId pid2 = new HeapPageId(1, 1);
+        lm.acquireTableLock(tid1, 1, Permissions.READ_ONLY);
+        assertTrue(lm.holdsLock(tid1, pid2));
+
+        lm.acquireLock(tid2, pid, Permissions.READ_ONLY);
+        Grabber writer = new Grabber(tid3, pid2, Permissions.READ_WRITE).finish();
+        assertFalse(writer.acquired);
+
+        lm.releaseTransactionLocks(tid1);
+        assertTrue(writer.finish().acquired);
+    }
+
+    /**
+     * Locking more pages of a table than the escalation threshold swaps
+     * the page locks for a table lock.
+     */
+    @Test public void pageLocksEscalate() throws Exception {
+        lm.setEscalationThreshold(2);
+        for (int i = 0; i < 3; i++)
+            lm.acquireLock(tid1, new HeapPageId(1, i), Permissions.READ_ONLY);
+        PageId other = new HeapPageId(1, 9);
+        assertTrue(lm.holdsLock(tid1, other));
+
+        // readers are still welcome, writers are not
+        lm.acquireLock(tid2, other, Permissions.READ_ONLY);
+        Grabber writer = new Grabber(tid3, other, Permissions.READ_WRITE).finish();
+        assertFalse(writer.acquired);
+
+        lm.releaseTransactionLocks(tid1);
+        lm.releaseTransactionLocks(tid2);
+        assertTrue(writer.finish().acquired);
+    }
+
+    /**
+     * A deadlock aborts the youngest transaction on the cycle straight away,
+     * long before the timeout.
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        PageId pid2 = new HeapPageId(1, 1);
+        lm.acquireLock(tid1, pid, Permissions.READ_WRITE);
+        lm.acquireLock(tid2, pid2, Permissions.READ_WRITE);
+        Grabber g1 = new Grabber(tid1, pid2, Permissions.READ_WRITE).finish();
+        assertFalse(g1.acquired);
+
+        long start = System.currentTimeMillis();
+        try {
+            lm.acquireLock(tid2, pid, Permissions.READ_WRITE);
+            fail("expected the deadlock to abort tid2");
+        } catch (TransactionAbortedException e) {
+            assertTrue(System.currentTimeMillis() - start < lm.getTimeout());
+        }
+        assertFalse(g1.finish().acquired);
+        assertNull(g1.error);
+
+        lm.releaseTransactionLocks(tid2);
+        assertTrue(g1.finish().acquired);
+    }
+
+    /**
+     * With FEWEST_LOCKS, the victim may be a transaction other than the one
+     * that closed the cycle; its wait is aborted and the requester goes on
+     * waiting for its locks.
+     */
+    @Test public void deadlockAbortsFewestLocks() throws Exception {
+        lm.setVictimPolicy(LockManager.VictimPolicy.FEWEST_LOCKS);
+        PageId pid2 = new HeapPageId(1, 1);
+        PageId pid3 = new HeapPageId(1, 2);
+        lm.acquireLock(tid1, pid, Permissions.READ_WRITE);
+        lm.acquireLock(tid2, pid2, Permissions.READ_WRITE);
+        lm.acquireLock(tid2, pid3, Permissions.READ_ONLY);
+        Grabber g1 = new Grabber(tid1, pid2, Permissions.READ_WRITE).finish();
+        Grabber g2 = new Grabber(tid2, pid, Permissions.READ_WRITE).finish();
+
+        assertFalse(g1.acquired);
+        assertNotNull(g1.error);
+        assertFalse(g2.acquired);
+
+        lm.releaseTransactionLocks(tid1);
+        assertTrue(g2.finish().acquired);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -62,6 +62,17 @@ public class RecordIdTest extends SimpleDbTestBase {
     	assertEquals(hrid.hashCode(), hrid2.hashCode());
     }
 
+    /**
+     * Real table ids are large, file path hash codes; hashing a RecordId
+     * on such a table must not overflow.
+     */
+    @Test public void hCodeLargeTableId() {
+    	RecordId rid = new RecordId(new HeapPageId(Integer.MIN_VALUE, 123456), 500);
+    	assertEquals(rid.hashCode(),
+    			new RecordId(new HeapPageId(Integer.MIN_VALUE, 123456), 500).hashCode());
+    	assertFalse(rid.equals(new RecordId(new HeapPageId(Integer.MIN_VALUE, 123457), 500)));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    /** Minimal page whose only interesting state is its dirty bit. */
+    private static class StubPage implements Page {
+        private final PageId pid;
+        private TransactionId dirtier;
+
+        StubPage(PageId pid) { this.pid = pid; }
+        public PageId getId() { return pid; }
+        public TransactionId isDirty() { return dirtier; }
+        public void markDirty(boolean dirty, TransactionId tid) { dirtier = dirty ? tid : null; }
+        public byte[] getPageData() { return new byte[0]; }
+        public Page getBeforeImage() { return this; }
+        public void setBeforeImage() { }
+    }
+
+    private BufferFrame[] addFrames(ReplacementPolicy policy, int n) {
+        return addFrames(policy, 0, n, false);
+    }
+
+    private BufferFrame[] addFrames(ReplacementPolicy policy, int first, int n,
+            boolean sequential) {
+        BufferFrame[] fs = new BufferFrame[n];
+        for (int i = 0; i < n; i++) {
+            PageId pid = new HeapPageId(1, first + i);
+            fs[i] = new BufferFrame(pid, new StubPage(pid));
+            policy.frameAdded(fs[i], sequential);
+        }
+        return fs;
+    }
+
+    /**
+     * Unit test for LRUPolicy: the least recently used frame is the victim.
+     */
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        ReplacementPolicy policy = new LRUPolicy();
+        BufferFrame[] fs = addFrames(policy, 3);
+        assertSame(fs[0], policy.chooseVictim());
+
+        policy.frameAccessed(fs[0], false);
+        assertSame(fs[1], policy.chooseVictim());
+
+        policy.frameRemoved(fs[1]);
+        assertSame(fs[2], policy.chooseVictim());
+    }
+
+    /**
+     * Unit test for CLOCK: recently referenced frames get a second chance.
+     */
+    @Test public void clockGivesSecondChance() {
+        ReplacementPolicy policy = new ClockPolicy();
+        BufferFrame[] fs = addFrames(policy, 3);
+
+        // every frame starts out referenced, so the first sweep clears all
+        // of the bits and the hand comes back around to the first frame
+        BufferFrame victim = policy.chooseVictim();
+        assertSame(fs[0], victim);
+        policy.frameRemoved(victim);
+
+        policy.frameAccessed(fs[1], false);
+        assertSame(fs[2], policy.chooseVictim());
+    }
+
+    /**
+     * Dirty pages must never be chosen, whatever the policy.
+     */
+    @Test public void dirtyPagesAreNotEvicted() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy policy = kind.create(2);
+            BufferFrame[] fs = addFrames(policy, 2);
+            fs[0].getPage().markDirty(true, new TransactionId());
+            assertSame(fs[1], policy.chooseVictim());
+
+            fs[1].getPage().markDirty(true, new TransactionId());
+            assertNull(policy.chooseVictim());
+        }
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: a page that has proven itself hot is not
+     * pushed out by a long sequential scan.
+     */
+    @Test public void twoQueueResistsScans() {
+        ReplacementPolicy policy = new TwoQueuePolicy(8);
+        BufferFrame hot = addFrames(policy, 0, 1, false)[0];
+
+        // evict the page once, then bring it back while it is still
+        // remembered in A1out; that promotes it to the hot queue
+        assertSame(hot, policy.chooseVictim());
+        policy.frameRemoved(hot);
+        hot = addFrames(policy, 0, 1, false)[0];
+
+        // a long scan through a full pool only ever evicts its own
+        // probationary pages
+        int resident = 1;
+        for (int i = 1; i < 100; i++) {
+            addFrames(policy, i, 1, true);
+            if (++resident > 8) {
+                BufferFrame victim = policy.chooseVictim();
+                assertNotSame(hot, victim);
+                policy.frameRemoved(victim);
+                resident--;
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,174 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+  OpIterator gtJoin;
+
+  /**
+   * Initialize each unit test; the inputs are out of order, for the join
+   * to sort
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 5, 6,
+                    1, 2,
+                    7, 8,
+                    3, 4 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 4, 5, 6,
+                    2, 3, 4,
+                    1, 2, 3,
+                    5, 6, 7,
+                    3, 4, 5 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate; tuples
+   * come out in order of the outer join field
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.compareDbIterators(eqJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.compareDbIterators(gtJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext())
+      op.next();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    gtJoin.open();
+    TestUtil.compareDbIterators(gtJoin, op);
+  }
+
+  private static ArrayList<String> sortedRows(OpIterator it) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    it.open();
+    while (it.hasNext())
+      rows.add(it.next().toString());
+    it.close();
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * Every operator it supports gives the same tuples as a nested loop join,
+   * on inputs with many duplicate values
+   */
+  @Test public void matchesNestedLoops() throws Exception {
+    Random rand = new Random(0);
+    int[] left = new int[2 * 300];
+    int[] right = new int[2 * 200];
+    for (int i = 0; i < left.length; i++)
+      left[i] = rand.nextInt(50);
+    for (int i = 0; i < right.length; i++)
+      right[i] = rand.nextInt(50);
+    for (Predicate.Op op : Predicate.Op.values()) {
+      if (!SortMergeJoin.supports(op))
+        continue;
+      JoinPredicate pred = new JoinPredicate(0, op, 1);
+      ArrayList<String> expected = sortedRows(new Join(pred,
+          TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right)));
+      assertFalse(expected.isEmpty());
+      assertEquals(op.toString(), expected, sortedRows(new SortMergeJoin(pred,
+          TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right))));
+    }
+  }
+
+  /**
+   * Inputs from an ascending OrderBy on the join field, or from another
+   * sort-merge join on it, are taken as they come
+   */
+  @Test public void sortedInputs() throws Exception {
+    assertTrue(SortMergeJoin.isSortedOn(new OrderBy(0, true, scan1), 0));
+    assertFalse(SortMergeJoin.isSortedOn(new OrderBy(0, false, scan1), 0));
+    assertFalse(SortMergeJoin.isSortedOn(new OrderBy(1, true, scan1), 0));
+    assertFalse(SortMergeJoin.isSortedOn(scan1, 0));
+
+    SortMergeJoin eq = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1), scan1, scan2);
+    assertTrue(SortMergeJoin.isSortedOn(eq, 0));
+    assertTrue(SortMergeJoin.isSortedOn(eq, width1 + 1));
+    assertFalse(SortMergeJoin.isSortedOn(eq, 1));
+    SortMergeJoin lt = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 1), scan1, scan2);
+    assertFalse(SortMergeJoin.isSortedOn(lt, width1 + 1));
+
+    // joining the output of a join to a third relation on the same field
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, new SortMergeJoin(pred, scan1, scan2),
+        TestUtil.createTupleList(1, new int[] { 5, 3, 9 }));
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width1 + width2 + 1,
+        new int[] { 3, 4, 3, 4, 5, 3,
+                    5, 6, 5, 6, 7, 5 }), op);
+  }
+
+  /**
+   * Operators with no order to merge on are refused
+   */
+  @Test(expected = IllegalArgumentException.class) public void unsupported() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
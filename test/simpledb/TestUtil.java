@@ -380,6 +380,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            FreeSpaceMap.mapFile(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -84,6 +84,35 @@ public class AbortEvictionTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    /** Aborts a transaction whose dirty page was stolen, i.e. written to disk
+     * to make room in a pool of one page, and ensures that its effects were
+     * still undone, from the before image in the log.
+     */
+    @Test public void testUndoStolenPages()
+            throws IOException, DbException, TransactionAbortedException {
+        // Allocate a file with ~10 pages of data
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
+        Database.resetBufferPool(1);
+
+        // BEGIN TRANSACTION
+        Transaction t = new Transaction();
+        t.start();
+
+        // Insert a new row; scanning forces its page out of the pool
+        AbortEvictionTest.insertRow(f, t);
+        boolean found = AbortEvictionTest.findMagicTuple(f, t);
+        assertTrue(found);
+        // ABORT
+        t.transactionComplete(true);
+
+        // A second transaction must not find the tuple
+        t = new Transaction();
+        t.start();
+        found = AbortEvictionTest.findMagicTuple(f, t);
+        assertFalse(found);
+        t.commit();
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AbortEvictionTest.class);
@@ -0,0 +1,99 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Batch execution benchmark: an analytical query over a table that fits in
+ * the pool, SELECT SUM(c2) FROM t WHERE c1 &lt; x, and a filtered
+ * projection of it, each run a tuple at a time through next and a batch at
+ * a time through nextBatch. Reports tuples scanned per second for each.
+ * <p>
+ * Not part of the regular test run; use
+ * <code>ant runsystest -Dtest=BatchExecutionBenchmark</code>.
+ */
+public class BatchExecutionBenchmark extends SimpleDbTestBase {
+    private static final int ROWS = 500000;
+    private static final int COLUMNS = 4;
+    private static final int SCANS = 10;
+
+    private static Filter filter(HeapFile table, TransactionId tid) {
+        return new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(1 << 15)),
+                new SeqScan(tid, table.getId(), "t"));
+    }
+
+    private static Project project(HeapFile table, TransactionId tid) {
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(0);
+        fields.add(2);
+        return new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, filter(table, tid));
+    }
+
+    private interface Run {
+        void run(TransactionId tid) throws Exception;
+    }
+
+    private static void time(String name, Run r) throws Exception {
+        r.run(new TransactionId()); // warm up
+        long start = System.nanoTime();
+        for (int i = 0; i < SCANS; i++) {
+            TransactionId tid = new TransactionId();
+            r.run(tid);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-18s %12.0f tuples/s%n", name, SCANS * ROWS / seconds);
+    }
+
+    @Test public void queryThroughput() throws Exception {
+        // a tuple of four int columns takes 16 bytes and a header bit
+        Database.resetBufferPool(ROWS / (BufferPool.getPageSize() * 8 / (16 * 8 + 1)) + 16);
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, 1 << 16, new HashMap<Integer, Integer>(), null);
+
+        time("sum, rows", tid -> {
+            Aggregator agg = new IntegerAggregator(Aggregator.NO_GROUPING, null, 2, Aggregator.Op.SUM);
+            Filter f = filter(table, tid);
+            f.open();
+            while (f.hasNext())
+                agg.mergeTupleIntoGroup(f.next());
+            f.close();
+        });
+        time("sum, batches", tid -> {
+            Aggregate a = new Aggregate(filter(table, tid), 2, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+            a.open();
+            a.close();
+        });
+        time("project, rows", tid -> {
+            Project p = project(table, tid);
+            p.open();
+            long sum = 0;
+            while (p.hasNext())
+                sum += ((IntField) p.next().getField(1)).getValue();
+            p.close();
+        });
+        time("project, batches", tid -> {
+            Project p = project(table, tid);
+            p.open();
+            long sum = 0;
+            TupleBatch b;
+            while ((b = p.nextBatch()) != null) {
+                int[] v = b.intColumn(1);
+                for (int i = 0; i < b.numRows(); i++)
+                    sum += v[b.row(i)];
+            }
+            p.close();
+        });
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionBenchmark.class);
+    }
+}
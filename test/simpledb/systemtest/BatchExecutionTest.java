@@ -0,0 +1,168 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Plans run a batch at a time, through nextBatch, give the same tuples as
+ * when they are run a tuple at a time.
+ */
+public class BatchExecutionTest extends SimpleDbTestBase {
+    // several pages, and several batches, of three int columns
+    private static final int ROWS = 5000;
+
+    private static ArrayList<ArrayList<Integer>> rows(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return rows;
+    }
+
+    private static ArrayList<ArrayList<Integer>> batchRows(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        TupleBatch b;
+        while ((b = it.nextBatch()) != null) {
+            assertTrue(b.numRows() > 0);
+            for (int i = 0; i < b.numRows(); i++)
+                rows.add(SystemTestUtil.tupleToList(b.getTuple(i)));
+        }
+        it.close();
+        return rows;
+    }
+
+    private static void sort(ArrayList<ArrayList<Integer>> rows) {
+        Collections.sort(rows, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = Integer.compare(a.get(i), b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        });
+    }
+
+    @Test public void scanFilterProject() throws Exception {
+        ArrayList<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, all);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        assertEquals(all, batchRows(scan));
+
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(0);
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(50));
+            ArrayList<ArrayList<Integer>> expected = rows(new Project(fields, types,
+                    new Filter(p, new SeqScan(tid, f.getId(), "t"))));
+            assertEquals(op.toString(), expected, batchRows(new Project(fields, types,
+                    new Filter(p, new SeqScan(tid, f.getId(), "t")))));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Tuples from a batch of a scan keep their RecordIds, for Delete. */
+    @Test public void scanKeepsRecordIds() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        TupleBatch b = scan.nextBatch();
+        // two int columns fit 504 tuples on a page
+        int last = b.numRows() - 1;
+        Tuple t = b.getTuple(last);
+        assertEquals(last % 504, t.getRecordId().getTupleNumber());
+        assertEquals(new HeapPageId(f.getId(), last / 504), t.getRecordId().getPageId());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void aggregate() throws Exception {
+        ArrayList<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, 10, null, all);
+        HashMap<Integer, Integer> sums = new HashMap<Integer, Integer>();
+        int total = 0;
+        for (ArrayList<Integer> row : all) {
+            Integer s = sums.get(row.get(0));
+            sums.put(row.get(0), (s == null ? 0 : s) + row.get(2));
+            total += row.get(2);
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int g : sums.keySet()) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(g);
+            row.add(sums.get(g));
+            expected.add(row);
+        }
+        sort(expected);
+
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> grouped = batchRows(
+                new Aggregate(new SeqScan(tid, f.getId(), "t"), 2, 0, Aggregator.Op.SUM));
+        sort(grouped);
+        assertEquals(expected, grouped);
+
+        ArrayList<ArrayList<Integer>> sum = rows(new Aggregate(
+                new SeqScan(tid, f.getId(), "t"), 2, Aggregator.NO_GROUPING, Aggregator.Op.SUM));
+        assertEquals(1, sum.size());
+        assertEquals(total, (int) sum.get(0).get(0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A join whose output fills several batches, with outer rows that
+     * match many inner ones, and the build side split into partitions.
+     */
+    @Test public void hashJoin() throws Exception {
+        // HashEquiJoin keeps as many outer tuples in memory as would fill
+        // the pool: 2048 here, so the 3000 outer ones are partitioned
+        Database.resetBufferPool(4);
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 3000, 50, null, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, 2000, 50, null, null);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        TransactionId tid = new TransactionId();
+
+        ArrayList<ArrayList<Integer>> expected = rows(new Join(p,
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r")));
+        sort(expected);
+        ArrayList<ArrayList<Integer>> joined = batchRows(new HashEquiJoin(p,
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r")));
+        sort(joined);
+        assertTrue(expected.size() > 2 * TupleBatch.DEFAULT_CAPACITY);
+        assertEquals(expected, joined);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Operators without a batch path get one through the adapter. */
+    @Test public void rowAdapter() throws Exception {
+        ArrayList<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, all);
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> sorted = batchRows(
+                new OrderBy(1, true, new SeqScan(tid, f.getId(), "t")));
+        assertEquals(rows(new OrderBy(1, true, new SeqScan(tid, f.getId(), "t"))), sorted);
+        assertEquals(ROWS, sorted.size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
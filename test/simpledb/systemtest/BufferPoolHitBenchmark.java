@@ -0,0 +1,83 @@
+package simpledb.systemtest;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Buffer pool hit benchmark: a table that fits in the pool is read once to
+ * cache it, then every thread fetches random pages of it with
+ * {@link BufferPool#getPage}, so every request is a hit. Reports pages
+ * fetched per second for 1, 2, 4, ... threads, up to the number of cores.
+ * With the page table sharded, the rate should grow with the thread count.
+ * <p>
+ * Not part of the regular test run; use
+ * <code>ant runsystest -Dtest=BufferPoolHitBenchmark</code>.
+ */
+public class BufferPoolHitBenchmark extends SimpleDbTestBase {
+    private static final int PAGES = 40;
+    private static final int FETCHES = 500000;
+
+    private static class Reader extends Thread {
+        final HeapFile table;
+        final Random rand;
+        Exception error;
+
+        Reader(HeapFile table, long seed) {
+            this.table = table;
+            this.rand = new Random(seed);
+        }
+
+        public void run() {
+            try {
+                BufferPool bp = Database.getBufferPool();
+                TransactionId tid = new TransactionId();
+                for (int i = 0; i < FETCHES; i++) {
+                    PageId pid = new HeapPageId(table.getId(), rand.nextInt(PAGES));
+                    bp.getPage(tid, pid, Permissions.READ_ONLY);
+                }
+                bp.transactionComplete(tid);
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    private double run(HeapFile table, int threads) throws Exception {
+        Reader[] readers = new Reader[threads];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            readers[i] = new Reader(table, i);
+            readers[i].start();
+        }
+        for (Reader r : readers) {
+            r.join();
+            if (r.error != null)
+                throw r.error;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return (double) threads * FETCHES / seconds;
+    }
+
+    @Test public void pageHitThroughput() throws Exception {
+        // two int columns fit 504 tuples on a page
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                2, PAGES * 504, new HashMap<Integer, Integer>(), null);
+        int cores = Runtime.getRuntime().availableProcessors();
+        run(table, cores); // warm up, and bring the table into the pool
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            double rate = run(table, threads);
+            System.out.printf("%3d threads %12.0f pages/s%n", threads, rate);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolHitBenchmark.class);
+    }
+}
@@ -0,0 +1,62 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Bulk load benchmark: the same tuples are appended to an empty table in a
+ * single transaction, once through the Insert operator and once with a
+ * {@link BulkLoader}. Reports tuples loaded per second for each.
+ * <p>
+ * Not part of the regular test run; use
+ * <code>ant runsystest -Dtest=BulkLoadBenchmark</code>.
+ */
+public class BulkLoadBenchmark extends SimpleDbTestBase {
+    private static final int TUPLES = 200000;
+
+    private static TupleIterator tuples() {
+        ArrayList<Tuple> ts = new ArrayList<Tuple>();
+        for (int i = 0; i < TUPLES; i++)
+            ts.add(Utility.getHeapTuple(new int[] { i, -i }));
+        return new TupleIterator(Utility.getTupleDesc(2), ts);
+    }
+
+    @Test public void loadThroughput() throws Exception {
+        // two int columns fit 504 tuples on a page
+        Database.resetBufferPool(TUPLES / 504 + 16);
+
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        Transaction t = new Transaction();
+        t.start();
+        long start = System.nanoTime();
+        Insert insert = new Insert(t.getId(), tuples(), table.getId());
+        insert.open();
+        insert.next();
+        insert.close();
+        t.commit();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Insert     %10.0f tuples/s%n", TUPLES / seconds);
+
+        table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        t = new Transaction();
+        t.start();
+        start = System.nanoTime();
+        BulkLoader loader = new BulkLoader(t.getId(), table);
+        loader.open();
+        loader.load(tuples());
+        loader.close();
+        t.commit();
+        seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("BulkLoader %10.0f tuples/s%n", TUPLES / seconds);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoadBenchmark.class);
+    }
+}
@@ -0,0 +1,168 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+    // two int columns fit 504 tuples on a page
+    private static final int PER_PAGE = 504;
+
+    private static TupleIterator tuples(int first, int n, ArrayList<ArrayList<Integer>> all) {
+        ArrayList<Tuple> ts = new ArrayList<Tuple>();
+        for (int i = first; i < first + n; i++) {
+            ts.add(Utility.getHeapTuple(new int[] { i, -i }));
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            all.add(row);
+        }
+        return new TupleIterator(Utility.getTupleDesc(2), ts);
+    }
+
+    /**
+     * Loaded tuples are all there after commit, in new pages after the old
+     * ones, with one log record per extent rather than per page.
+     */
+    @Test public void loadAndCommit() throws Exception {
+        ArrayList<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, PER_PAGE, null, all);
+        assertEquals(1, f.numPages());
+
+        Transaction t = new Transaction();
+        t.start();
+        int records = Database.getLogFile().getTotalRecords();
+        BulkLoader loader = new BulkLoader(t.getId(), f, 4);
+        loader.open();
+        assertEquals(6 * PER_PAGE, loader.load(tuples(0, 6 * PER_PAGE, all)));
+        assertEquals(6 * PER_PAGE, loader.close());
+        assertEquals(2, Database.getLogFile().getTotalRecords() - records);
+        t.commit();
+
+        assertEquals(7, f.numPages());
+        SystemTestUtil.matchTuples(f, all);
+    }
+
+    /**
+     * A load is undone by abort: the new pages are left empty, for inserts.
+     */
+    @Test public void abortEmptiesPages() throws Exception {
+        ArrayList<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, PER_PAGE, null, all);
+
+        Transaction t = new Transaction();
+        t.start();
+        BulkLoader loader = new BulkLoader(t.getId(), f, 2);
+        loader.open();
+        loader.load(tuples(0, 3 * PER_PAGE, new ArrayList<ArrayList<Integer>>()));
+        loader.close();
+        t.abort();
+
+        assertEquals(4, f.numPages());
+        SystemTestUtil.matchTuples(f, all);
+
+        t = new Transaction();
+        t.start();
+        AbortEvictionTest.insertRow(f, t);
+        t.commit();
+        assertEquals(4, f.numPages());
+    }
+
+    /**
+     * Tuples can be loaded from a text file, as COPY does.
+     */
+    @Test public void loadText() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        File text = File.createTempFile("bulk", ".txt");
+        text.deleteOnExit();
+        ArrayList<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>();
+        try (FileWriter w = new FileWriter(text)) {
+            for (int i = 0; i < 1000; i++) {
+                w.write(i + "|" + (i * 2) + "\n");
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(i);
+                row.add(i * 2);
+                all.add(row);
+            }
+        }
+
+        Transaction t = new Transaction();
+        t.start();
+        BulkLoader loader = new BulkLoader(t.getId(), f);
+        loader.open();
+        assertEquals(1000, loader.load(text, '|'));
+        loader.close();
+        t.commit();
+        SystemTestUtil.matchTuples(f, all);
+    }
+
+    /**
+     * A line that doesn't hold a tuple of the table fails the load.
+     */
+    @Test(expected = DbException.class) public void loadBadText() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        File text = File.createTempFile("bulk", ".txt");
+        text.deleteOnExit();
+        try (FileWriter w = new FileWriter(text)) {
+            w.write("1,2\n3\n");
+        }
+        Transaction t = new Transaction();
+        t.start();
+        BulkLoader loader = new BulkLoader(t.getId(), f);
+        loader.open();
+        try {
+            loader.load(text, ',');
+        } finally {
+            t.abort();
+        }
+    }
+
+    /**
+     * A text file is read the same as HeapFileEncoder reads it: spaces
+     * around fields and '\r' at the ends of lines are dropped, blank lines
+     * skipped, and a field that isn't a number is taken as 0.
+     */
+    @Test public void loadTextLikeEncoder() throws Exception {
+        File text = File.createTempFile("bulk", ".txt");
+        text.deleteOnExit();
+        try (FileWriter w = new FileWriter(text)) {
+            w.write(" 1 , 2\r\n\n3,x\r\n\r\n-5,6");
+        }
+        ArrayList<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>();
+        for (int[] row : new int[][] { { 1, 2 }, { 3, 0 }, { -5, 6 } }) {
+            ArrayList<Integer> r = new ArrayList<Integer>();
+            r.add(row[0]);
+            r.add(row[1]);
+            all.add(r);
+        }
+
+        File dat = File.createTempFile("encoded", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(text, dat, BufferPool.getPageSize(), 2);
+        SystemTestUtil.matchTuples(Utility.openHeapFile(2, dat), all);
+
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        Transaction t = new Transaction();
+        t.start();
+        BulkLoader loader = new BulkLoader(t.getId(), f);
+        loader.open();
+        assertEquals(3, loader.load(text, ','));
+        loader.close();
+        t.commit();
+        SystemTestUtil.matchTuples(f, all);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,64 @@
+package simpledb.systemtest;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Commit throughput benchmark: every transaction dirties a run of
+ * consecutive pages of a table and commits, so each commit logs the pages,
+ * forces the log and writes the run out. Reports commits per second for
+ * each {@link BufferPool.SyncPolicy}, for runs of 1 and 8 pages.
+ * <p>
+ * Not part of the regular test run; use
+ * <code>ant runsystest -Dtest=CommitThroughputBenchmark</code>.
+ */
+public class CommitThroughputBenchmark extends SimpleDbTestBase {
+    private static final int PAGES = 64;
+    private static final int COMMITS = 300;
+
+    private double run(HeapFile table, int pagesPerCommit) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        Random rand = new Random(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < COMMITS; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            int first = rand.nextInt(PAGES - pagesPerCommit + 1);
+            for (int j = 0; j < pagesPerCommit; j++) {
+                PageId pid = new HeapPageId(table.getId(), first + j);
+                bp.getPage(t.getId(), pid, Permissions.READ_WRITE).markDirty(true, t.getId());
+            }
+            t.commit();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return COMMITS / seconds;
+    }
+
+    @Test public void commitThroughput() throws Exception {
+        // two int columns fit 504 tuples on a page
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                2, PAGES * 504, new HashMap<Integer, Integer>(), null);
+        Database.resetBufferPool(PAGES * 2);
+        BufferPool bp = Database.getBufferPool();
+        run(table, 8); // warm up
+        for (BufferPool.SyncPolicy policy : BufferPool.SyncPolicy.values()) {
+            bp.setSyncPolicy(policy, BufferPool.DEFAULT_SYNC_INTERVAL_MILLIS);
+            for (int pages : new int[] { 1, 8 }) {
+                double rate = run(table, pages);
+                System.out.printf("%-6s %d page(s)/commit %10.0f commits/s%n",
+                        policy, pages, rate);
+            }
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CommitThroughputBenchmark.class);
+    }
+}
@@ -0,0 +1,47 @@
+package simpledb.systemtest;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Hash join benchmark: joins an outer relation several times bigger than
+ * the memory HashEquiJoin may use (as much as the default buffer pool) to
+ * an inner one of the same size, and reports the time taken and output
+ * tuples per second.
+ * <p>
+ * Not part of the regular test run; use
+ * <code>ant runsystest -Dtest=HashJoinBenchmark</code>.
+ */
+public class HashJoinBenchmark extends SimpleDbTestBase {
+    // the default pool holds 50 * 512 = 25600 outer tuples of two ints
+    private static final int ROWS = 400000;
+
+    @Test public void joinThroughput() throws Exception {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, ROWS, ROWS, null, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, ROWS, ROWS, null, null);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        for (int run = 0; run < 3; run++) {
+            TransactionId tid = new TransactionId();
+            HashEquiJoin j = new HashEquiJoin(p, new SeqScan(tid, left.getId(), "l"),
+                    new SeqScan(tid, right.getId(), "r"));
+            long start = System.nanoTime();
+            j.open();
+            long tuples = 0;
+            TupleBatch b;
+            while ((b = j.nextBatch()) != null)
+                tuples += b.numRows();
+            j.close();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%8.2f s %10.0f tuples/s%n", seconds, tuples / seconds);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashJoinBenchmark.class);
+    }
+}
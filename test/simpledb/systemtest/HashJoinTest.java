@@ -0,0 +1,167 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * HashEquiJoin gives the right tuples when the outer relation doesn't fit
+ * in memory: spilling partitions, splitting them again, and joining a
+ * partition of a single key a memory-full at a time. The memory it may use
+ * is set by the size of the buffer pool: two int columns take 8 bytes, so
+ * 512 outer tuples per page of the pool.
+ */
+public class HashJoinTest extends SimpleDbTestBase {
+
+    private static final Comparator<ArrayList<Integer>> ROWS =
+            new Comparator<ArrayList<Integer>>() {
+        public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+            for (int i = 0; i < a.size(); i++) {
+                int c = Integer.compare(a.get(i), b.get(i));
+                if (c != 0)
+                    return c;
+            }
+            return 0;
+        }
+    };
+
+    private ArrayList<ArrayList<Integer>> left;
+    private ArrayList<ArrayList<Integer>> right;
+    private HeapFile leftFile;
+    private HeapFile rightFile;
+
+    private void createTables(int leftRows, int rightRows, int maxValue,
+            HashMap<Integer, Integer> leftColumns) throws Exception {
+        left = new ArrayList<ArrayList<Integer>>();
+        right = new ArrayList<ArrayList<Integer>>();
+        leftFile = SystemTestUtil.createRandomHeapFile(2, leftRows, maxValue, leftColumns, left);
+        rightFile = SystemTestUtil.createRandomHeapFile(2, rightRows, maxValue, null, right);
+    }
+
+    /** @return the sorted rows of left joined to right on their first columns */
+    private ArrayList<ArrayList<Integer>> expected() {
+        HashMap<Integer, ArrayList<ArrayList<Integer>>> byKey =
+                new HashMap<Integer, ArrayList<ArrayList<Integer>>>();
+        for (ArrayList<Integer> l : left) {
+            if (!byKey.containsKey(l.get(0)))
+                byKey.put(l.get(0), new ArrayList<ArrayList<Integer>>());
+            byKey.get(l.get(0)).add(l);
+        }
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> r : right) {
+            ArrayList<ArrayList<Integer>> ls = byKey.get(r.get(0));
+            if (ls == null)
+                continue;
+            for (ArrayList<Integer> l : ls) {
+                ArrayList<Integer> row = new ArrayList<Integer>(l);
+                row.addAll(r);
+                rows.add(row);
+            }
+        }
+        Collections.sort(rows, ROWS);
+        return rows;
+    }
+
+    private HashEquiJoin join(TransactionId tid) {
+        return new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, leftFile.getId(), "l"), new SeqScan(tid, rightFile.getId(), "r"));
+    }
+
+    private static ArrayList<ArrayList<Integer>> rows(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        Collections.sort(rows, ROWS);
+        return rows;
+    }
+
+    private static ArrayList<ArrayList<Integer>> batchRows(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        TupleBatch b;
+        while ((b = it.nextBatch()) != null)
+            for (int i = 0; i < b.numRows(); i++)
+                rows.add(SystemTestUtil.tupleToList(b.getTuple(i)));
+        Collections.sort(rows, ROWS);
+        return rows;
+    }
+
+    /** Checks the join a tuple at a time, then a batch at a time. */
+    private void validateJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = expected();
+        TransactionId tid = new TransactionId();
+        HashEquiJoin j = join(tid);
+        j.open();
+        assertEquals(expected, rows(j));
+        j.close();
+        j = join(tid);
+        j.open();
+        assertEquals(expected, batchRows(j));
+        j.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** An outer relation of 20000 tuples in memory for 2048 is partitioned. */
+    @Test public void spillsPartitions() throws Exception {
+        Database.resetBufferPool(4);
+        createTables(20000, 5000, 10000, null);
+        validateJoin();
+    }
+
+    /** Partitions of 2500 tuples in memory for 1024 are split again. */
+    @Test public void splitsAgain() throws Exception {
+        Database.resetBufferPool(2);
+        createTables(40000, 5000, 20000, null);
+        validateJoin();
+    }
+
+    /** An outer relation of one key can't be split, but still joins. */
+    @Test public void skewedKey() throws Exception {
+        Database.resetBufferPool(2);
+        HashMap<Integer, Integer> oneKey = new HashMap<Integer, Integer>();
+        oneKey.put(0, 3);
+        createTables(3000, 200, 40, oneKey);
+        validateJoin();
+    }
+
+    /** Rewinding gives the same tuples again, and closing removes the spill files. */
+    @Test public void rewindAndClose() throws Exception {
+        FilenameFilter spills = new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("spill") && name.endsWith(".tmp");
+            }
+        };
+        File tmp = new File(System.getProperty("java.io.tmpdir"));
+        int before = tmp.list(spills).length;
+
+        Database.resetBufferPool(4);
+        createTables(20000, 5000, 10000, null);
+        ArrayList<ArrayList<Integer>> expected = expected();
+        TransactionId tid = new TransactionId();
+        HashEquiJoin j = join(tid);
+        j.open();
+        for (int i = 0; i < expected.size() / 2; i++)
+            j.next();
+        assertTrue(tmp.list(spills).length > before);
+        j.rewind();
+        assertEquals(expected, rows(j));
+        j.close();
+        assertEquals(before, tmp.list(spills).length);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashJoinTest.class);
+    }
+}
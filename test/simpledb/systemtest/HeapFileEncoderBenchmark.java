@@ -0,0 +1,62 @@
+package simpledb.systemtest;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * HeapFileEncoder benchmark: converts a text file of random int rows into
+ * a heap file with 1, 2, 4, ... encoding threads, up to the number of
+ * cores, and reports megabytes of input converted per second for each.
+ * <p>
+ * Not part of the regular test run; use
+ * <code>ant runsystest -Dtest=HeapFileEncoderBenchmark</code>.
+ */
+public class HeapFileEncoderBenchmark extends SimpleDbTestBase {
+    private static final int ROWS = 2000000;
+    private static final int COLUMNS = 4;
+
+    @Test public void convertThroughput() throws Exception {
+        File text = File.createTempFile("encoder", ".txt");
+        text.deleteOnExit();
+        Random rand = new Random(0);
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < ROWS; i++) {
+                for (int j = 0; j < COLUMNS; j++) {
+                    if (j > 0)
+                        w.write(',');
+                    w.write(Integer.toString(rand.nextInt()));
+                }
+                w.write('\n');
+            }
+        }
+        File dat = File.createTempFile("encoder", ".dat");
+        dat.deleteOnExit();
+        Type[] types = new Type[COLUMNS];
+        for (int j = 0; j < COLUMNS; j++)
+            types[j] = Type.INT_TYPE;
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        // warm up
+        HeapFileEncoder.convert(text, dat, BufferPool.getPageSize(), COLUMNS, types, ',', cores, null);
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            long start = System.nanoTime();
+            HeapFileEncoder.convert(text, dat, BufferPool.getPageSize(), COLUMNS, types, ',', threads, null);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%3d threads %8.1f MB/s%n", threads,
+                    text.length() / 1048576.0 / seconds);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderBenchmark.class);
+    }
+}
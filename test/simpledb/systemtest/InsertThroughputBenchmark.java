@@ -0,0 +1,50 @@
+package simpledb.systemtest;
+
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Insert throughput benchmark: tuples are inserted into a table, one
+ * transaction per tuple, in rounds as the table grows from empty to
+ * {@link #PAGES} pages. Reports inserts per second for each round. With the
+ * free-space map sending inserts straight to the last page, the rate
+ * should stay flat as the table grows, rather than fall with its size.
+ * <p>
+ * Not part of the regular test run; use
+ * <code>ant runsystest -Dtest=InsertThroughputBenchmark</code>.
+ */
+public class InsertThroughputBenchmark extends SimpleDbTestBase {
+    private static final int PAGES = 200;
+    private static final int ROUNDS = 5;
+
+    @Test public void insertThroughput() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                2, 0, new HashMap<Integer, Integer>(), null);
+        Database.resetBufferPool(PAGES * 2);
+        BufferPool bp = Database.getBufferPool();
+        // two int columns fit 504 tuples on a page
+        int perRound = PAGES * 504 / ROUNDS;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < perRound; i++) {
+                Transaction t = new Transaction();
+                t.start();
+                bp.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(i, 2));
+                t.commit();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%5d pages %10.0f inserts/s%n",
+                    table.numPages(), perRound / seconds);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(InsertThroughputBenchmark.class);
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb.systemtest;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Micro-benchmarks of the lookups keyed by HeapPageId and RecordId, on one
+ * thread: a HashMap of page ids (as in the pool's page table), a
+ * ConcurrentHashMap of record ids, BufferPool.getPage hits, and
+ * LockManager.acquireLock of a lock already held (as every getPage after
+ * the first makes). Each lookup builds a new key, as callers do. Reports
+ * nanoseconds per lookup.
+ * <p>
+ * Not part of the regular test run; use
+ * <code>ant runsystest -Dtest=KeyLookupBenchmark</code>.
+ */
+public class KeyLookupBenchmark extends SimpleDbTestBase {
+    private static final int PAGES = 64;
+    private static final int LOOKUPS = 2000000;
+    private static final int ROUNDS = 3;
+
+    private interface Lookup {
+        void run(int i) throws Exception;
+    }
+
+    private static void time(String name, Lookup l) throws Exception {
+        for (int i = 0; i < LOOKUPS; i++)
+            l.run(i); // warm up
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++)
+                l.run(i);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-22s %8.1f ns/lookup%n", name, (double) best / LOOKUPS);
+    }
+
+    @Test public void lookups() throws Exception {
+        // two int columns fit 504 tuples on a page
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(
+                2, PAGES * 504, new HashMap<Integer, Integer>(), null);
+        final int tableId = table.getId();
+
+        final HashMap<PageId, Integer> pages = new HashMap<PageId, Integer>();
+        for (int i = 0; i < PAGES; i++)
+            pages.put(new HeapPageId(tableId, i), i);
+        time("HashMap<PageId>", i -> {
+            if (pages.get(new HeapPageId(tableId, i % PAGES)) == null)
+                throw new AssertionError();
+        });
+
+        final ConcurrentHashMap<RecordId, Integer> records = new ConcurrentHashMap<RecordId, Integer>();
+        for (int i = 0; i < PAGES * 504; i++)
+            records.put(new RecordId(new HeapPageId(tableId, i / 504), i % 504), i);
+        time("ConcurrentHashMap<Rid>", i -> {
+            int n = i % (PAGES * 504);
+            if (records.get(new RecordId(new HeapPageId(tableId, n / 504), n % 504)) == null)
+                throw new AssertionError();
+        });
+
+        // a pool the table fits in, so every getPage is a hit
+        final BufferPool bp = Database.resetBufferPool(2 * PAGES);
+        final TransactionId tid = new TransactionId();
+        time("BufferPool.getPage", i -> bp.getPage(tid, new HeapPageId(tableId, i % PAGES), Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+
+        final LockManager lm = new LockManager();
+        final TransactionId owner = new TransactionId();
+        time("LockManager.acquire", i -> lm.acquireLock(owner, new HeapPageId(tableId, i % PAGES), Permissions.READ_ONLY));
+        lm.releaseTransactionLocks(owner);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(KeyLookupBenchmark.class);
+    }
+}
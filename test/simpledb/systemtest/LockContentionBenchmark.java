@@ -0,0 +1,127 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * High-contention locking benchmark: a handful of threads run short
+ * transactions that each write-lock two of a few pages in random order, so
+ * that deadlocks are frequent. Reports throughput and how long an aborted
+ * transaction waited before it found out, once per deadlock victim policy
+ * (NONE is the old timeout-only behavior).
+ * <p>
+ * Not part of the regular test run; use
+ * <code>ant runsystest -Dtest=LockContentionBenchmark</code>.
+ */
+public class LockContentionBenchmark extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+    private static final int TRANSACTIONS = 20;
+    private static final int PAGES = 4;
+
+    private static class Result {
+        final AtomicInteger commits = new AtomicInteger();
+        final AtomicInteger aborts = new AtomicInteger();
+        final AtomicLong abortWaitNanos = new AtomicLong();
+    }
+
+    private class Worker extends Thread {
+        final HeapFile table;
+        final Result result;
+        final Random rand;
+        Exception error;
+
+        Worker(HeapFile table, Result result, long seed) {
+            this.table = table;
+            this.result = result;
+            this.rand = new Random(seed);
+        }
+
+        public void run() {
+            try {
+                for (int i = 0; i < TRANSACTIONS; i++)
+                    runTransaction();
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        private void runTransaction() throws Exception {
+            BufferPool bp = Database.getBufferPool();
+            while (true) {
+                TransactionId tid = new TransactionId();
+                int first = rand.nextInt(PAGES);
+                int second = (first + 1 + rand.nextInt(PAGES - 1)) % PAGES;
+                long start = 0;
+                try {
+                    bp.getPage(tid, new HeapPageId(table.getId(), first),
+                            Permissions.READ_WRITE);
+                    Thread.sleep(1);
+                    start = System.nanoTime();
+                    bp.getPage(tid, new HeapPageId(table.getId(), second),
+                            Permissions.READ_WRITE);
+                    bp.transactionComplete(tid, true);
+                    result.commits.incrementAndGet();
+                    return;
+                } catch (TransactionAbortedException e) {
+                    if (start != 0)
+                        result.abortWaitNanos.addAndGet(System.nanoTime() - start);
+                    result.aborts.incrementAndGet();
+                    bp.transactionComplete(tid, false);
+                }
+            }
+        }
+    }
+
+    private void runWorkload(LockManager.VictimPolicy policy) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BufferPool bp = Database.getBufferPool();
+        bp.setDeadlockVictimPolicy(policy);
+        if (policy == LockManager.VictimPolicy.NONE)
+            bp.setLockTimeout(500);
+
+        // two int columns fit 504 tuples on a page
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                2, PAGES * 504, new HashMap<Integer, Integer>(), null);
+        assertEquals(PAGES, table.numPages());
+
+        Result result = new Result();
+        Worker[] workers = new Worker[THREADS];
+        long start = System.nanoTime();
+        for (int i = 0; i < THREADS; i++) {
+            workers[i] = new Worker(table, result, i);
+            workers[i].start();
+        }
+        for (Worker w : workers) {
+            w.join();
+            if (w.error != null)
+                throw w.error;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int aborts = result.aborts.get();
+        System.out.printf("%-12s %6.2fs %8.1f commits/s %6d aborts %9.2f ms mean wait before abort%n",
+                policy, seconds, result.commits.get() / seconds, aborts,
+                aborts == 0 ? 0 : result.abortWaitNanos.get() / 1e6 / aborts);
+        assertEquals(THREADS * TRANSACTIONS, result.commits.get());
+    }
+
+    @Test public void deadlockResolution() throws Exception {
+        for (LockManager.VictimPolicy policy : LockManager.VictimPolicy.values())
+            runWorkload(policy);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockContentionBenchmark.class);
+    }
+}
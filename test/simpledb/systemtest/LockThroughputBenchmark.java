@@ -0,0 +1,88 @@
+package simpledb.systemtest;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Read-only locking benchmark: every thread runs short transactions that
+ * take shared locks on a few random pages and then release them all, so
+ * nothing ever waits. Reports lock acquires per second for 1, 2, 4, ...
+ * threads, up to the number of cores, with the pages spread over several
+ * tables and all in one hot table; with the lock table striped, and only a
+ * transaction's first page lock in a table latching the table's stripe, the
+ * rate should grow with the thread count either way.
+ * <p>
+ * Not part of the regular test run; use
+ * <code>ant runsystest -Dtest=LockThroughputBenchmark</code>.
+ */
+public class LockThroughputBenchmark extends SimpleDbTestBase {
+    private static final int PAGES = 4096;
+    private static final int TABLES = 16;
+    private static final int LOCKS_PER_TRANSACTION = 16;
+    private static final int TRANSACTIONS = 20000;
+
+    private static class Reader extends Thread {
+        final LockManager lm;
+        final int tables;
+        final Random rand;
+        Exception error;
+
+        Reader(LockManager lm, int tables, long seed) {
+            this.lm = lm;
+            this.tables = tables;
+            this.rand = new Random(seed);
+        }
+
+        public void run() {
+            try {
+                for (int i = 0; i < TRANSACTIONS; i++) {
+                    TransactionId tid = new TransactionId();
+                    for (int j = 0; j < LOCKS_PER_TRANSACTION; j++) {
+                        PageId pid = new HeapPageId(1 + rand.nextInt(tables),
+                                rand.nextInt(PAGES));
+                        lm.acquireLock(tid, pid, Permissions.READ_ONLY);
+                    }
+                    lm.releaseTransactionLocks(tid);
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    private double run(int threads, int tables) throws Exception {
+        LockManager lm = new LockManager();
+        Reader[] readers = new Reader[threads];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            readers[i] = new Reader(lm, tables, i);
+            readers[i].start();
+        }
+        for (Reader r : readers) {
+            r.join();
+            if (r.error != null)
+                throw r.error;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return (double) threads * TRANSACTIONS * LOCKS_PER_TRANSACTION / seconds;
+    }
+
+    @Test public void sharedLockThroughput() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        run(cores, TABLES); // warm up
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            System.out.printf("%3d threads %12.0f acquires/s over %d tables, %12.0f in one%n",
+                    threads, run(threads, TABLES), TABLES, run(threads, 1));
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockThroughputBenchmark.class);
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb.systemtest;
+
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Scan benchmark: a wide table that fits in the pool is scanned with a
+ * Filter on its first column, so only one field of each tuple is looked
+ * at; the other fields of the tuples are never decoded. Reports tuples
+ * scanned per second, for tables of 2, 8 and 32 columns.
+ * <p>
+ * Not part of the regular test run; use
+ * <code>ant runsystest -Dtest=ScanFilterBenchmark</code>.
+ */
+public class ScanFilterBenchmark extends SimpleDbTestBase {
+    private static final int ROWS = 200000;
+    private static final int SCANS = 10;
+
+    private static double scan(HeapFile table) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < SCANS; i++) {
+            TransactionId tid = new TransactionId();
+            Filter f = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)),
+                    new SeqScan(tid, table.getId(), ""));
+            f.open();
+            while (f.hasNext())
+                f.next();
+            f.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return (double) SCANS * ROWS / seconds;
+    }
+
+    @Test public void filterThroughput() throws Exception {
+        for (int columns : new int[] { 2, 8, 32 }) {
+            // a tuple of n int columns takes 4n bytes and a header bit
+            Database.resetBufferPool(ROWS / (BufferPool.getPageSize() * 8 / (32 * columns + 1)) + 16);
+            HeapFile table = SystemTestUtil.createRandomHeapFile(
+                    columns, ROWS, new HashMap<Integer, Integer>(), null);
+            scan(table); // warm up, and bring the table into the pool
+            System.out.printf("%3d columns %12.0f tuples/s%n", columns, scan(table));
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanFilterBenchmark.class);
+    }
+}